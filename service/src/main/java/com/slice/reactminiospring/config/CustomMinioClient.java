@@ -8,6 +8,8 @@ import io.minio.MinioAsyncClient;
 import io.minio.ObjectWriteResponse;
 import io.minio.messages.Part;
 
+import java.util.concurrent.CompletableFuture;
+
 public class CustomMinioClient extends MinioAsyncClient {
 
     /**
@@ -33,6 +35,20 @@ public class CustomMinioClient extends MinioAsyncClient {
         return response.result().uploadId();
     }
 
+    /**
+     * 合并分片（异步），响应到达时完成
+     */
+    public CompletableFuture<ObjectWriteResponse> mergeMultipartUploadAsync(String bucketName, String region, String objectName, String uploadId, Part[] parts, Multimap<String, String> extraHeaders, Multimap<String, String> extraQueryParams) throws Exception {
+        return super.completeMultipartUploadAsync(bucketName, region, objectName, uploadId, parts, extraHeaders, extraQueryParams);
+    }
+
+    /**
+     * 查询当前上传后的分片信息（异步），响应到达时完成
+     */
+    public CompletableFuture<ListPartsResponse> listMultipartAsync(String bucketName, String region, String objectName, Integer maxParts, Integer partNumberMarker, String uploadId, Multimap<String, String> extraHeaders, Multimap<String, String> extraQueryParams) throws Exception {
+        return super.listPartsAsync(bucketName, region, objectName, maxParts, partNumberMarker, uploadId, extraHeaders, extraQueryParams);
+    }
+
     /**
      * 合并分片
      * @param bucketName String   桶名称
@@ -45,7 +61,7 @@ public class CustomMinioClient extends MinioAsyncClient {
      * @return ObjectWriteResponse
      */
     public ObjectWriteResponse mergeMultipartUpload(String bucketName, String region, String objectName, String uploadId, Part[] parts, Multimap<String, String> extraHeaders, Multimap<String, String> extraQueryParams) throws Exception {
-        return super.completeMultipartUploadAsync(bucketName, region, objectName, uploadId, parts, extraHeaders, extraQueryParams).get();
+        return mergeMultipartUploadAsync(bucketName, region, objectName, uploadId, parts, extraHeaders, extraQueryParams).get();
     }
 
     /**
@@ -61,7 +77,7 @@ public class CustomMinioClient extends MinioAsyncClient {
      * @return ListPartsResponse
      */
     public ListPartsResponse listMultipart(String bucketName, String region, String objectName, Integer maxParts, Integer partNumberMarker, String uploadId, Multimap<String, String> extraHeaders, Multimap<String, String> extraQueryParams) throws Exception {
-        return super.listPartsAsync(bucketName, region, objectName, maxParts, partNumberMarker, uploadId, extraHeaders, extraQueryParams).get();
+        return listMultipartAsync(bucketName, region, objectName, maxParts, partNumberMarker, uploadId, extraHeaders, extraQueryParams).get();
     }
 
 
@@ -0,0 +1,515 @@
+package com.slice.reactminiospring.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 下载（DownloadManager）相关配置
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "download")
+public class DownloadConfigInfo {
+
+    /**
+     * 磁盘缓存命中时是否走零拷贝（容器 sendfile），容器不支持时回退到普通复制
+     */
+    private Boolean zeroCopy = true;
+
+    /**
+     * 块缓存的对齐单位，内存/磁盘缓存均按 (object, blockIndex) 存储。
+     * 不小于客户端最大的分片（Go 客户端 5/10/20MB、网页端 5MB），每个分片落在单个块内，磁盘命中可整段 sendfile
+     */
+    private DataSize blockSize = DataSize.ofMegabytes(20);
+
+    /**
+     * 单个请求最多处理的 Range 区间数，超过时忽略 Range 返回整文件
+     */
+    private Integer maxRanges = 32;
+
+    /**
+     * 可信反向代理的 IP 地址。只有来自这些地址的请求才采用 X-Forwarded-For 与客户端标识请求头（bandwidth.client-header），
+     * 其余请求一律按连接的远端地址区分客户端；为空时不信任任何转发头
+     */
+    private List<String> trustedProxies = new ArrayList<>();
+
+    /**
+     * 写出 StreamingResponseBody 的异步线程数，即同时写出响应体的下载数（虚拟线程模式下不生效）
+     */
+    private Integer streamThreads = 400;
+
+    /**
+     * 单个下载响应体的最长写出时间
+     */
+    private Duration streamTimeout = Duration.ofHours(2);
+
+    /**
+     * 回源拉取与响应体写出使用虚拟线程（需要 JDK 21+，低版本 JDK 下回退为平台线程池）
+     */
+    private Boolean virtualThreads = false;
+
+    /**
+     * 同时访问 MinIO 的最大请求数；应小于 admission.max-cold-fetches，回源线程多于许可时由它而不是线程数限制 MinIO 并发
+     */
+    private Integer minioConcurrency = 64;
+
+    /**
+     * 复制循环共用缓冲池（BufferPool）最多保留的 64KB 缓冲块数，0 表示不池化
+     */
+    private Integer bufferPoolSize = 1024;
+
+    /**
+     * 当前运行时是否实际启用虚拟线程
+     */
+    public boolean virtualThreadsActive() {
+        return Boolean.TRUE.equals(virtualThreads) && Runtime.version().feature() >= 21;
+    }
+
+    /**
+     * 堆内块缓存（chunkCache）
+     */
+    private Memory memory = new Memory();
+
+    @Data
+    public static class Memory {
+        /**
+         * 堆内块缓存的字节预算，按 byte[] 长度计重
+         */
+        private DataSize maxWeight = DataSize.ofMegabytes(512);
+
+        /**
+         * 超过该大小的块只落盘，不进入堆内缓存；不小于 block-size 时整块都可以进堆
+         */
+        private DataSize admissionMaxBlock = DataSize.ofMegabytes(20);
+
+        /**
+         * 块在观察窗口内被请求至少这么多次才进入堆内缓存，过滤只访问一次的对象；1 表示不过滤
+         */
+        private Integer admissionMinHits = 2;
+
+        /**
+         * 访问计数的观察窗口
+         */
+        private Duration admissionWindow = Duration.ofMinutes(10);
+
+        /**
+         * 堆内块的压缩方式：LZ4 按 64KB 帧压缩可压缩的块，NONE 存原始字节
+         */
+        private MemoryCompression compression = MemoryCompression.LZ4;
+
+        /**
+         * 压缩后不超过原始大小的该比例才存压缩形式，否则存原始字节
+         */
+        private Double compressionMinRatio = 0.8;
+    }
+
+    public enum MemoryCompression {
+        NONE, LZ4
+    }
+
+    /**
+     * 磁盘块缓存（DiskChunkStore）
+     */
+    private Disk disk = new Disk();
+
+    @Data
+    public static class Disk {
+        /**
+         * 缓存根目录，块文件位于 <dir>/<对象目录>/ 下
+         */
+        private String dir = "cache";
+
+        /**
+         * 磁盘缓存字节预算，超过后按 policy 淘汰
+         */
+        private DataSize maxSize = DataSize.ofGigabytes(20);
+
+        private DiskEvictionPolicy policy = DiskEvictionPolicy.LRU;
+
+        /**
+         * 持久化索引文件名（位于 dir 下），启动时据此恢复，无需遍历目录；缺失、损坏或上次未正常退出时遍历一次目录重建
+         */
+        private String indexFile = "index.dat";
+
+        /**
+         * 不属于任何进行中拉取、且超过该时长未被写入的 .tmp 文件视为残留，由后台定期清理删除
+         */
+        private Duration tmpMaxAge = Duration.ofMinutes(30);
+    }
+
+    public enum DiskEvictionPolicy {
+        LRU, LFU
+    }
+
+    /**
+     * 顺序预读：同一客户端连续请求同一文件的相邻区间时，提前拉取后续块
+     */
+    private ReadAhead readAhead = new ReadAhead();
+
+    @Data
+    public static class ReadAhead {
+        private Boolean enabled = true;
+
+        /**
+         * 每次预读的块数
+         */
+        private Integer blocks = 1;
+
+        /**
+         * 连续多少次相邻请求后开始预读
+         */
+        private Integer minSequential = 2;
+
+        /**
+         * 本节点预读的字节预算（已发起但尚未被请求使用的预读块）
+         */
+        private DataSize budget = DataSize.ofMegabytes(256);
+
+        /**
+         * 预读块在该时间内未被使用则取消（仍在拉取时中止拉取）
+         */
+        private Duration unusedTimeout = Duration.ofSeconds(60);
+    }
+
+    /**
+     * 准入控制：缓存未命中的回源拉取超过上限时快速返回 503，缓存命中的请求不受限制
+     */
+    private Admission admission = new Admission();
+
+    @Data
+    public static class Admission {
+        private Boolean enabled = true;
+
+        /**
+         * 同时执行的回源拉取数（块或整文件），也是回源线程池的线程数
+         */
+        private Integer maxColdFetches = 128;
+
+        /**
+         * 等待执行的回源拉取数上限，超过后新的冷请求返回 503
+         */
+        private Integer maxQueue = 512;
+
+        /**
+         * 503 响应中 Retry-After 的取值范围，实际值按积压量与平均拉取耗时估算
+         */
+        private Duration retryAfterMin = Duration.ofSeconds(1);
+        private Duration retryAfterMax = Duration.ofSeconds(60);
+    }
+
+    /**
+     * 孤儿拉取：读取某个拉取的请求全部断开后是否中止回源
+     */
+    private Orphan orphan = new Orphan();
+
+    @Data
+    public static class Orphan {
+        private Boolean enabled = true;
+
+        /**
+         * 已拉取超过该百分比的继续填充到缓存
+         */
+        private Integer keepFillingPercent = 50;
+
+        /**
+         * 最后一个读取方断开后等待的时长，期间客户端断点续传重新加入则不取消
+         */
+        private Duration grace = Duration.ofSeconds(3);
+    }
+
+    /**
+     * 回源拉取的优先级通道（FetchScheduler），份额为占 max-cold-fetches 的百分比
+     */
+    private Lanes lanes = new Lanes();
+
+    @Data
+    public static class Lanes {
+        /**
+         * 交互通道：Range 请求未命中的块
+         */
+        private Integer interactive = 60;
+
+        /**
+         * 整文件填充通道：超过直传阈值的大文件整体拉取
+         */
+        private Integer bulk = 25;
+
+        /**
+         * 预读/预热通道，只使用自己的份额
+         */
+        private Integer speculative = 15;
+
+        /**
+         * 排队超过该时长的拉取不论通道优先获得下一个空闲槽位
+         */
+        private Duration maxWait = Duration.ofSeconds(10);
+    }
+
+    /**
+     * MinIO 对冲读取：区间 GET 超过自适应延迟阈值仍无响应时再发一个请求，取先返回者
+     */
+    private Hedge hedge = new Hedge();
+
+    @Data
+    public static class Hedge {
+        private Boolean enabled = true;
+
+        /**
+         * 对冲阈值取近期首字节延迟的该百分位
+         */
+        private Double percentile = 95.0;
+
+        /**
+         * 阈值下限与上限；样本不足时按上限
+         */
+        private Duration minDelay = Duration.ofMillis(20);
+        private Duration maxDelay = Duration.ofSeconds(2);
+
+        /**
+         * 对冲与失败重试占主请求数的比例上限（%），MinIO 整体变慢时不会成倍放大负载
+         */
+        private Integer budgetPercent = 10;
+
+        /**
+         * 单次读取最多发出的请求数（主请求 + 对冲 + 失败重试）
+         */
+        private Integer maxAttempts = 3;
+    }
+
+    /**
+     * 出口带宽调度：按客户端令牌桶加权公平分配全局出口带宽（开启后磁盘命中不再走 sendfile）
+     */
+    private Bandwidth bandwidth = new Bandwidth();
+
+    @Data
+    public static class Bandwidth {
+        private Boolean enabled = false;
+
+        /**
+         * 本节点下载响应的总出口速率（每秒），由活跃客户端按权重分享
+         */
+        private DataSize globalRate = DataSize.ofMegabytes(100);
+
+        /**
+         * 单个客户端的速率上限（每秒），0 表示只受公平份额限制
+         */
+        private DataSize perClientRate = DataSize.ofBytes(0);
+
+        /**
+         * 令牌桶容量，即空闲后允许的突发字节数
+         */
+        private DataSize burst = DataSize.ofKilobytes(256);
+
+        /**
+         * 标识客户端的请求头，只采信来自 trusted-proxies 的请求，缺省时按 X-Forwarded-For / 远端 IP 区分
+         */
+        private String clientHeader = "X-Client-Id";
+
+        /**
+         * 客户端权重（客户端标识 -> 权重），未配置的客户端权重为 1
+         */
+        private Map<String, Integer> weights = new HashMap<>();
+    }
+
+    /**
+     * 整文件下载的内容编码：按 Accept-Encoding 协商 gzip，压缩副本缓存在磁盘原文件旁
+     */
+    private Encoding encoding = new Encoding();
+
+    @Data
+    public static class Encoding {
+        private Boolean enabled = true;
+
+        /**
+         * 可压缩类型，按原始文件名扩展名判断（不区分大小写）
+         */
+        private List<String> types = new ArrayList<>(List.of("txt", "log", "csv", "tsv", "json", "xml", "html", "htm",
+                "css", "js", "svg", "md", "yml", "yaml", "sql", "ini", "conf", "properties"));
+
+        /**
+         * 小于该大小的文件压缩收益不抵 gzip 头开销，直接原样发送
+         */
+        private DataSize minSize = DataSize.ofKilobytes(1);
+
+        /**
+         * 大于该大小的文件不生成压缩副本
+         */
+        private DataSize maxSize = DataSize.ofGigabytes(4);
+
+        /**
+         * gzip 压缩级别 1-9
+         */
+        private Integer level = 6;
+
+        /**
+         * 压缩后超过原始大小的该比例视为不可压缩，丢弃副本，之后该内容一律原样发送
+         */
+        private Double minRatio = 0.9;
+
+        /**
+         * 同时生成压缩副本的文件数
+         */
+        private Integer parallelism = 2;
+    }
+
+    /**
+     * 发布预热：合并上传完成后先把文件拉进块缓存，再广播 MQTT 下载通知
+     */
+    private Prewarm prewarm = new Prewarm();
+
+    @Data
+    public static class Prewarm {
+        /**
+         * IMMEDIATE：不预热，立即广播；AFTER_WARMUP：预热完成后广播；TIME_LIMIT：预热完成或超过 timeout 后广播
+         */
+        private PrewarmMode mode = PrewarmMode.TIME_LIMIT;
+
+        /**
+         * TIME_LIMIT 模式下最长等待时间
+         */
+        private Duration timeout = Duration.ofMinutes(2);
+
+        /**
+         * 同时拉取的块数，避免预热占满下载线程池
+         */
+        private Integer parallelism = 4;
+
+        /**
+         * 从文件头开始最多这么多字节的块直接进入内存缓存（跳过访问次数准入），其余只落盘
+         */
+        private DataSize maxMemory = DataSize.ofMegabytes(256);
+    }
+
+    public enum PrewarmMode {
+        IMMEDIATE, AFTER_WARMUP, TIME_LIMIT
+    }
+
+    /**
+     * 多节点部署：通过 Redis 租约做跨节点的回源去重（ClusterFetchCoordinator）
+     */
+    private Cluster cluster = new Cluster();
+
+    @Data
+    public static class Cluster {
+        private Boolean enabled = false;
+
+        /**
+         * 本节点对其他节点可见的地址，例如 http://10.0.0.5:8080；为空时由 server.address/server.port 拼接
+         */
+        private String nodeUrl;
+
+        /**
+         * 回源租约有效期，持有者在拉取期间按 1/3 周期续期；节点宕机后租约最多这么久后失效
+         */
+        private Duration leaseTtl = Duration.ofSeconds(30);
+
+        /**
+         * 从持有租约的节点复制数据时，建立连接与等待响应头的超时
+         */
+        private Duration peerTimeout = Duration.ofSeconds(10);
+
+        /**
+         * 节点间内部接口的共享口令（请求头 X-Cluster-Token），开启集群时必须配置，为空时启动失败
+         */
+        private String secret = "";
+
+        /**
+         * 内部接口（/internal/cache）单独监听的端口，0 表示与 server.port 共用；
+         * 设置后只在该端口上提供内部接口，对外端口上一律返回 404，node-url 应指向该端口
+         */
+        private Integer internalPort = 0;
+
+        /**
+         * 内部端口绑定的地址（如内网网卡地址），为空时监听所有地址
+         */
+        private String internalAddress;
+
+        /**
+         * 节点间共享缓存：每个块按一致性哈希归属一个节点，本地未命中时先向归属节点读取（由其回源并缓存）
+         */
+        private Boolean peerCache = true;
+
+        /**
+         * 静态节点列表（各节点的 node-url）；为空时各节点通过 Redis 注册并发现彼此
+         */
+        private List<String> peers = new ArrayList<>();
+
+        /**
+         * 一致性哈希环上每个节点的虚拟节点数
+         */
+        private Integer virtualNodes = 160;
+    }
+
+    /**
+     * 堆外热块缓存（OffHeapChunkStore），开启后准入的热块放在堆外而不是 chunkCache
+     */
+    private OffHeap offHeap = new OffHeap();
+
+    @Data
+    public static class OffHeap {
+        private Boolean enabled = false;
+
+        /**
+         * 堆外缓存总容量，按 blockSize 切成固定槽位
+         */
+        private DataSize capacity = DataSize.ofGigabytes(2);
+
+        /**
+         * DIRECT：direct ByteBuffer（受 -XX:MaxDirectMemorySize 限制）；MAPPED：内存映射 slab 文件
+         */
+        private OffHeapMode mode = OffHeapMode.DIRECT;
+
+        /**
+         * 单段大小，单个 ByteBuffer 不能超过 2GB
+         */
+        private DataSize segmentSize = DataSize.ofGigabytes(1);
+
+        /**
+         * MAPPED 模式下的 slab 文件
+         */
+        private String slabFile = "cache/offheap.slab";
+    }
+
+    public enum OffHeapMode {
+        DIRECT, MAPPED
+    }
+
+    /**
+     * 响应式下载端口：独立端口上用少量事件循环线程提供 /files/downloadForWindows/{id}，适合大量慢速客户端
+     */
+    private Reactive reactive = new Reactive();
+
+    @Data
+    public static class Reactive {
+        private Boolean enabled = false;
+
+        /**
+         * 监听地址与端口，与 server.port 上的 Servlet 接口并存
+         */
+        private String host = "0.0.0.0";
+        private Integer port = 8081;
+
+        /**
+         * 事件循环线程数，0 表示 CPU 核数；连接数不随线程数增长
+         */
+        private Integer eventLoopThreads = 0;
+
+        /**
+         * 等待拉取中的块到达的最长时间，超时后截断连接由客户端续传
+         */
+        private Duration fetchTimeout = Duration.ofMinutes(6);
+
+        /**
+         * keep-alive 连接在两次请求之间的最长空闲时间
+         */
+        private Duration idleTimeout = Duration.ofMinutes(2);
+    }
+}
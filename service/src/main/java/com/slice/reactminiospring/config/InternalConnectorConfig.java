@@ -0,0 +1,33 @@
+package com.slice.reactminiospring.config;
+
+import jakarta.annotation.Resource;
+import org.apache.catalina.connector.Connector;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 节点间内部接口的独立连接器（download.cluster.internal-port）
+ * 内部接口只在该端口上提供（见 ClusterFetchCoordinator.servesInternal），可只绑定内网地址，不经过对外端口
+ */
+@Configuration
+public class InternalConnectorConfig {
+
+    @Resource
+    private DownloadConfigInfo downloadConfigInfo;
+
+    @Bean
+    public WebServerFactoryCustomizer<TomcatServletWebServerFactory> internalConnectorCustomizer() {
+        return factory -> {
+            DownloadConfigInfo.Cluster cfg = downloadConfigInfo.getCluster();
+            if (!Boolean.TRUE.equals(cfg.getEnabled()) || cfg.getInternalPort() <= 0) return;
+            Connector connector = new Connector(TomcatServletWebServerFactory.DEFAULT_PROTOCOL);
+            connector.setPort(cfg.getInternalPort());
+            if (cfg.getInternalAddress() != null && !cfg.getInternalAddress().isBlank()) {
+                connector.setProperty("address", cfg.getInternalAddress());
+            }
+            factory.addAdditionalTomcatConnectors(connector);
+        };
+    }
+}
@@ -2,20 +2,48 @@ package com.slice.reactminiospring.config;
 
 import io.minio.MinioClient;
 import jakarta.annotation.Resource;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
 @Configuration
 public class MinioConfig {
     @Resource
     private MinioConfigInfo minIOConfigInfo;
 
+    /**
+     * MinIO 客户端共用的 OkHttp 客户端：连接池、并发上限与超时按 minio.* 配置
+     */
+    @Bean
+    public OkHttpClient minioHttpClient() {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(minIOConfigInfo.getMaxRequests());
+        dispatcher.setMaxRequestsPerHost(minIOConfigInfo.getMaxRequestsPerHost());
+        return new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(minIOConfigInfo.getMaxIdleConnections(),
+                        minIOConfigInfo.getKeepAlive().toMillis(), TimeUnit.MILLISECONDS))
+                .connectTimeout(minIOConfigInfo.getConnectTimeout())
+                .readTimeout(minIOConfigInfo.getReadTimeout())
+                .writeTimeout(minIOConfigInfo.getWriteTimeout())
+                // 与 MinIO SDK 默认客户端一致，只用 HTTP/1.1
+                .protocols(List.of(Protocol.HTTP_1_1))
+                .build();
+    }
+
     @Bean
-    public MinioClient minioClient() {
+    public MinioClient minioClient(OkHttpClient minioHttpClient) {
         //链式编程，构建MinioClient对象
         return MinioClient.builder()
                 .endpoint(minIOConfigInfo.getEndpoint())
                 .credentials(minIOConfigInfo.getAccessKey(), minIOConfigInfo.getSecretKey())
+                .httpClient(minioHttpClient)
                 .build();
     }
 }
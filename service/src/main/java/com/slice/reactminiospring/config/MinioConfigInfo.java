@@ -4,6 +4,8 @@ import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
+
 @Data
 @Component
 @ConfigurationProperties(prefix = "minio")
@@ -15,4 +17,23 @@ public class MinioConfigInfo {
     private String bucket;
     private Integer expiry;
     private Integer breakpointTime;
+
+    // -------- 访问 MinIO 的 HTTP 客户端（OkHttp）--------
+
+    /**
+     * 连接池保留的空闲连接数与空闲连接存活时间
+     */
+    private Integer maxIdleConnections = 64;
+    private Duration keepAlive = Duration.ofMinutes(5);
+
+    /**
+     * 异步请求的并发上限（总数 / 单个 MinIO 节点），超出的请求在 OkHttp 调度器中排队
+     * OkHttp 默认单节点只允许 5 个并发请求
+     */
+    private Integer maxRequests = 256;
+    private Integer maxRequestsPerHost = 128;
+
+    private Duration connectTimeout = Duration.ofSeconds(10);
+    private Duration readTimeout = Duration.ofMinutes(5);
+    private Duration writeTimeout = Duration.ofMinutes(5);
 }
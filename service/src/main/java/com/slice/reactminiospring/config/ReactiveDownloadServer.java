@@ -0,0 +1,55 @@
+package com.slice.reactminiospring.config;
+
+import com.slice.reactminiospring.handler.ReactiveDownloadHandler;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.resources.LoopResources;
+
+/**
+ * 响应式下载端口（download.reactive）：与 Servlet 接口并存的 reactor-netty 服务，只提供 /files/downloadForWindows/{id}
+ * 固定数量的事件循环线程承载全部连接，连接数不受 download.stream-threads 限制
+ */
+@Slf4j
+@Component
+public class ReactiveDownloadServer {
+
+    private static final String DOWNLOAD_PATH = "/files/downloadForWindows/{id}";
+
+    @Resource
+    private DownloadConfigInfo downloadConfigInfo;
+
+    @Resource
+    private ReactiveDownloadHandler reactiveDownloadHandler;
+
+    private LoopResources loops;
+    private DisposableServer server;
+
+    @PostConstruct
+    public void start() {
+        DownloadConfigInfo.Reactive cfg = downloadConfigInfo.getReactive();
+        if (!Boolean.TRUE.equals(cfg.getEnabled())) return;
+        int threads = cfg.getEventLoopThreads() > 0 ? cfg.getEventLoopThreads() : Runtime.getRuntime().availableProcessors();
+        loops = LoopResources.create("download-reactive", 1, threads, true);
+        server = HttpServer.create()
+                .host(cfg.getHost())
+                .port(cfg.getPort())
+                .runOn(loops)
+                .idleTimeout(cfg.getIdleTimeout())
+                .route(routes -> routes
+                        .get(DOWNLOAD_PATH, reactiveDownloadHandler::download)
+                        .head(DOWNLOAD_PATH, reactiveDownloadHandler::download))
+                .bindNow();
+        log.info("ReactiveDownloadServer started. address={} eventLoopThreads={}", server.address(), threads);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (server != null) server.disposeNow();
+        if (loops != null) loops.disposeLater().block();
+    }
+}
@@ -0,0 +1,79 @@
+package com.slice.reactminiospring.config;
+
+import com.slice.reactminiospring.handler.CompletedFutureReturnValueHandler;
+import com.slice.reactminiospring.service.DiskChunkStore;
+import com.slice.reactminiospring.util.MinioUtil;
+import jakarta.annotation.Resource;
+import jakarta.servlet.ServletRequestEvent;
+import jakarta.servlet.ServletRequestListener;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.boot.web.servlet.ServletListenerRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.method.support.HandlerMethodReturnValueHandler;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 下载接口返回 StreamingResponseBody，响应体在 MVC 异步线程中写出
+ */
+@Configuration
+public class WebMvcConfig implements WebMvcConfigurer {
+
+    @Resource
+    private DownloadConfigInfo downloadConfigInfo;
+
+    @Bean
+    public AsyncTaskExecutor downloadStreamExecutor() {
+        if (downloadConfigInfo.virtualThreadsActive()) {
+            // 每个响应体一个虚拟线程，慢客户端阻塞写出时不占用平台线程
+            SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("download-stream-");
+            executor.setVirtualThreads(true);
+            return executor;
+        }
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(downloadConfigInfo.getStreamThreads());
+        executor.setMaxPoolSize(downloadConfigInfo.getStreamThreads());
+        executor.setThreadNamePrefix("download-stream-");
+        executor.setDaemon(true);
+        return executor;
+    }
+
+    // 已完成的 CompletableFuture<ResponseEntity> 在请求线程上同步处理（见 CompletedFutureReturnValueHandler），须排在默认的异步处理之前
+    @Bean
+    public static SmartInitializingSingleton completedFutureReturnValues(RequestMappingHandlerAdapter adapter) {
+        return () -> {
+            List<HandlerMethodReturnValueHandler> defaults = adapter.getReturnValueHandlers();
+            List<HandlerMethodReturnValueHandler> handlers = new ArrayList<>(defaults.size() + 1);
+            handlers.add(new CompletedFutureReturnValueHandler(defaults));
+            handlers.addAll(defaults);
+            adapter.setReturnValueHandlers(handlers);
+        };
+    }
+
+    // 请求结束（含异步完成）时释放该请求钉住的磁盘缓存文件，并关闭交给响应体的 minio 对象流
+    @Bean
+    public ServletListenerRegistrationBean<ServletRequestListener> requestResourceReleaser(DiskChunkStore diskChunkStore) {
+        return new ServletListenerRegistrationBean<>(new ServletRequestListener() {
+            @Override
+            public void requestDestroyed(ServletRequestEvent event) {
+                diskChunkStore.releaseRequestPins(event.getServletRequest());
+                MinioUtil.closeRequestStreams(event.getServletRequest());
+            }
+        });
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(downloadStreamExecutor());
+        // 慢链路下载可能持续很久，由读写本身的超时兜底
+        configurer.setDefaultTimeout(downloadConfigInfo.getStreamTimeout().toMillis());
+    }
+}
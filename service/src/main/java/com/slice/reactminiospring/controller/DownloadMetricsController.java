@@ -0,0 +1,138 @@
+package com.slice.reactminiospring.controller;
+
+import com.slice.reactminiospring.common.R;
+import com.slice.reactminiospring.handler.ReactiveDownloadHandler;
+import com.slice.reactminiospring.service.BandwidthScheduler;
+import com.slice.reactminiospring.service.DiskChunkStore;
+import com.slice.reactminiospring.service.DownloadManager;
+import com.slice.reactminiospring.service.FetchAdmission;
+import com.slice.reactminiospring.service.FetchScheduler;
+import com.slice.reactminiospring.service.HedgedMinioReader;
+import com.slice.reactminiospring.service.OffHeapChunkStore;
+import com.slice.reactminiospring.service.PeerRing;
+import com.slice.reactminiospring.util.BufferPool;
+import jakarta.annotation.Resource;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 下载缓存指标
+ */
+@RestController
+@RequestMapping("/download/metrics")
+public class DownloadMetricsController {
+
+    @Resource
+    private DownloadManager downloadManager;
+    @Resource
+    private OffHeapChunkStore offHeapChunkStore;
+    @Resource
+    private DiskChunkStore diskChunkStore;
+    @Resource
+    private PeerRing peerRing;
+    @Resource
+    private FetchAdmission fetchAdmission;
+    @Resource
+    private FetchScheduler fetchScheduler;
+    @Resource
+    private BandwidthScheduler bandwidthScheduler;
+    @Resource
+    private HedgedMinioReader hedgedMinioReader;
+    @Resource
+    private ReactiveDownloadHandler reactiveDownloadHandler;
+
+    /**
+     * 堆内块缓存：当前权重、命中率、淘汰与准入拒绝次数
+     */
+    @GetMapping("/chunk-cache")
+    public R<Map<String, Object>> chunkCache() {
+        return R.ok(downloadManager.chunkCacheStats());
+    }
+
+    /**
+     * 堆外热块缓存：容量、占用、命中与淘汰
+     */
+    @GetMapping("/off-heap")
+    public R<Map<String, Object>> offHeap() {
+        return R.ok(offHeapChunkStore.stats());
+    }
+
+    /**
+     * 磁盘块缓存：占用、预算、命中、淘汰与 tmp 清理
+     */
+    @GetMapping("/disk-cache")
+    public R<Map<String, Object>> diskCache() {
+        return R.ok(diskChunkStore.stats());
+    }
+
+    /**
+     * 节点共享缓存：当前一致性哈希环成员
+     */
+    @GetMapping("/peers")
+    public R<Map<String, Object>> peers() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("enabled", peerRing.isEnabled());
+        m.put("members", peerRing.getMembers());
+        return R.ok(m);
+    }
+
+    /**
+     * 回源准入：执行中/排队中的拉取数、拒绝次数与当前 Retry-After 估算
+     */
+    @GetMapping("/admission")
+    public R<Map<String, Object>> admission() {
+        return R.ok(fetchAdmission.stats());
+    }
+
+    /**
+     * 回源优先级通道：各通道份额、执行中与排队数、提升与防饿死调度次数
+     */
+    @GetMapping("/fetch-lanes")
+    public R<Map<String, Object>> fetchLanes() {
+        return R.ok(fetchScheduler.stats());
+    }
+
+    /**
+     * 复制缓冲池：命中、未命中（临时分配）与池满丢弃次数
+     */
+    @GetMapping("/buffers")
+    public R<Map<String, Object>> buffers() {
+        return R.ok(BufferPool.stats());
+    }
+
+    /**
+     * 出口带宽调度：活跃客户端、写出字节与累计限速等待时间
+     */
+    @GetMapping("/bandwidth")
+    public R<Map<String, Object>> bandwidth() {
+        return R.ok(bandwidthScheduler.stats());
+    }
+
+    /**
+     * gzip 内容编码：压缩副本生成/丢弃次数、gzip 响应数与节省的传输字节
+     */
+    @GetMapping("/encoding")
+    public R<Map<String, Object>> encoding() {
+        return R.ok(downloadManager.encodingStats());
+    }
+
+    /**
+     * MinIO 读取：当前对冲阈值、对冲/重试次数、对冲胜出次数与剩余预算
+     */
+    @GetMapping("/minio")
+    public R<Map<String, Object>> minio() {
+        return R.ok(hedgedMinioReader.stats());
+    }
+
+    /**
+     * 响应式下载端口：进行中的响应数、累计响应、中途断开次数与等待拉取数据的挂起次数
+     */
+    @GetMapping("/reactive")
+    public R<Map<String, Object>> reactive() {
+        return R.ok(reactiveDownloadHandler.stats());
+    }
+}
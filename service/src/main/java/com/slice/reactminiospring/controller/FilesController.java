@@ -8,13 +8,16 @@ import com.slice.reactminiospring.service.DownloadManager;
 import com.slice.reactminiospring.service.IFilesService;
 import jakarta.annotation.Resource;
 import jakarta.servlet.http.HttpServletRequest;
-import jakarta.servlet.http.HttpServletResponse;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.io.IOException;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * 文件表 前端控制器
@@ -33,7 +36,7 @@ public class FilesController {
      * 检查文件是否存在
      */
     @GetMapping("/multipart/check/{md5}")
-    public R<FileUploadInfo> checkFileByMd5(@PathVariable String md5) {
+    public CompletableFuture<R<FileUploadInfo>> checkFileByMd5(@PathVariable String md5) {
         log.info("查询 <{}> 文件是否存在、是否进行断点续传", md5);
         return filesService.checkFileByMd5(md5);
     }
@@ -51,7 +54,7 @@ public class FilesController {
      * 文件合并（单文件不会合并，仅信息入库）
      */
     @PostMapping("/multipart/merge/{md5}")
-    public R<String> mergeMultipartUpload(@PathVariable String md5) {
+    public CompletableFuture<R<String>> mergeMultipartUpload(@PathVariable String md5) {
         log.info("通过 <{}> 合并上传任务", md5);
         return filesService.mergeMultipartUpload(md5);
     }
@@ -60,9 +63,9 @@ public class FilesController {
      * 下载文件（分片）
      */
     @GetMapping("/download/{id}")
-    public ResponseEntity<byte[]> downloadMultipartFile(@PathVariable Long id, HttpServletRequest request, HttpServletResponse response) throws Exception {
+    public CompletableFuture<ResponseEntity<StreamingResponseBody>> downloadMultipartFile(@PathVariable Long id, HttpServletRequest request) {
         log.info("通过 <{}> 开始分片下载", id);
-        return filesService.downloadMultipartFile(id, request, response);
+        return filesService.downloadMultipartFile(id, request);
     }
 
     @GetMapping("/list")
@@ -71,28 +74,36 @@ public class FilesController {
     }
 
 
-    @GetMapping("/downloadForWindows/{id}")
-    public ResponseEntity<byte[]> download(@PathVariable Long id, HttpServletRequest request, HttpServletResponse response) throws IOException {
-        String range = request.getHeader("Range");
-        long start = 0;
-        long end = Long.MAX_VALUE;
+    /**
+     * HEAD：只返回文件头（大小、ETag、Last-Modified），供客户端检查更新，支持 If-None-Match / If-Modified-Since
+     */
+    @RequestMapping(value = "/downloadForWindows/{id}", method = RequestMethod.HEAD)
+    public CompletableFuture<ResponseEntity<Void>> head(@PathVariable Long id, HttpServletRequest request) {
+        return downloadManager.head(id, request);
+    }
 
-        if (range != null && range.startsWith("bytes=")) {
-            String r = range.substring("bytes=".length());
-            String[] parts = r.split("-");
+    /**
+     * 元数据已缓存时返回已完成的 future，由 CompletedFutureReturnValueHandler 在请求线程上提交，磁盘命中仍可走 sendfile；
+     * 需要向 MinIO 查询 stat 时等待期间不占用请求线程
+     */
+    @GetMapping("/downloadForWindows/{id}")
+    public CompletableFuture<ResponseEntity<StreamingResponseBody>> download(@PathVariable Long id, HttpServletRequest request) {
+        String range = request.getHeader(HttpHeaders.RANGE);
+        List<HttpRange> ranges = Collections.emptyList();
+        if (range != null) {
             try {
-                start = Long.parseLong(parts[0]);
-                if (parts.length > 1 && parts[1].length() > 0) {
-                    end = Long.parseLong(parts[1]);
-                }
-            } catch (NumberFormatException ignored) {}
+                // 支持 RFC 7233 的多区间写法：bytes=0-99,200-299,-500
+                ranges = HttpRange.parseRanges(range);
+            } catch (IllegalArgumentException ignored) {
+                // Range 格式非法时忽略，按无 Range 处理
+            }
         }
-        if (range == null) {
+        if (ranges.isEmpty()) {
             // 🔹 客户端没传 Range，返回完整文件 → 状态码 200
-            return downloadManager.streamFull(id, response);
+            return downloadManager.streamFull(id, request);
         } else {
-            // 🔹 客户端带 Range，返回分片 → 状态码 206
-            return downloadManager.streamRange(id, start, end == Long.MAX_VALUE ? Long.MAX_VALUE : end, response);
+            // 🔹 客户端带 Range，返回分片 → 状态码 206（多个区间为 multipart/byteranges）
+            return downloadManager.streamRange(id, ranges, request);
         }
 
     }
@@ -0,0 +1,45 @@
+package com.slice.reactminiospring.controller;
+
+import com.slice.reactminiospring.service.ClusterFetchCoordinator;
+import com.slice.reactminiospring.service.DownloadManager;
+import jakarta.annotation.Resource;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+/**
+ * 节点间内部接口：其他下载节点从本节点复制拉取中或已缓存的块
+ * 只在开启 download.cluster 时存在，须携带口令；配置 internal-port 后只在内部端口上提供
+ */
+@RestController
+@RequestMapping("/internal/cache")
+public class InternalCacheController {
+
+    @Resource
+    private DownloadManager downloadManager;
+    @Resource
+    private ClusterFetchCoordinator clusterFetchCoordinator;
+
+    /**
+     * 按缓存 key 读取 [offset, 末尾) 的数据。带上 object/etag/size 时本节点未缓存会回源并缓存（归属节点读穿，
+     * 只接受环上成员对归属本节点的 key 的请求），否则本节点没有时返回 404
+     */
+    @GetMapping
+    public ResponseEntity<StreamingResponseBody> read(@RequestParam String key,
+                                                      @RequestParam(defaultValue = "0") long offset,
+                                                      @RequestParam(required = false) String object,
+                                                      @RequestParam(required = false) String etag,
+                                                      @RequestParam(required = false) Long size,
+                                                      HttpServletRequest request) {
+        if (!clusterFetchCoordinator.servesInternal(request)) return ResponseEntity.notFound().build();
+        if (!clusterFetchCoordinator.authorized(request)) return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        if (offset < 0) return ResponseEntity.badRequest().build();
+        return downloadManager.servePeer(key, offset, object, etag, size,
+                request.getHeader(ClusterFetchCoordinator.NODE_HEADER), request);
+    }
+}
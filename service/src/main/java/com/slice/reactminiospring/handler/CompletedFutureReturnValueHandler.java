@@ -0,0 +1,78 @@
+package com.slice.reactminiospring.handler;
+
+import org.springframework.core.MethodParameter;
+import org.springframework.core.ResolvableType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.method.support.HandlerMethodReturnValueHandler;
+import org.springframework.web.method.support.HandlerMethodReturnValueHandlerComposite;
+import org.springframework.web.method.support.ModelAndViewContainer;
+
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 返回 CompletableFuture&lt;ResponseEntity&lt;...&gt;&gt; 的接口：future 在返回时已正常完成，就在请求线程上按其中的 ResponseEntity 处理，
+ * 不经过异步分派；未完成或异常完成的仍交给 Spring 默认的异步处理
+ * - 下载接口在元数据已缓存时返回已完成的 future，响应在请求线程上提交，磁盘命中仍可走 sendfile（Tomcat 在异步分派中不处理 sendfile）
+ * - 处理时把返回类型换成 future 的泛型参数（与 Spring 异步结果的处理方式一致），ResponseEntity&lt;StreamingResponseBody&gt; 等按声明的类型选择处理器
+ * - 由 WebMvcConfig 放在 RequestMappingHandlerAdapter 默认处理器之前
+ */
+public class CompletedFutureReturnValueHandler implements HandlerMethodReturnValueHandler {
+
+    private final HandlerMethodReturnValueHandlerComposite delegates = new HandlerMethodReturnValueHandlerComposite();
+
+    public CompletedFutureReturnValueHandler(List<HandlerMethodReturnValueHandler> defaults) {
+        delegates.addHandlers(defaults);
+    }
+
+    @Override
+    public boolean supportsReturnType(MethodParameter returnType) {
+        return CompletableFuture.class.isAssignableFrom(returnType.getParameterType())
+                && ResponseEntity.class.isAssignableFrom(returnType.nested().getNestedParameterType());
+    }
+
+    @Override
+    public void handleReturnValue(Object returnValue, MethodParameter returnType, ModelAndViewContainer mavContainer,
+                                  NativeWebRequest webRequest) throws Exception {
+        if (returnValue instanceof CompletableFuture<?> future && future.isDone() && !future.isCompletedExceptionally()) {
+            delegates.handleReturnValue(future.join(), new ResultMethodParameter(returnType), mavContainer, webRequest);
+            return;
+        }
+        delegates.handleReturnValue(returnValue, returnType, mavContainer, webRequest);
+    }
+
+    /**
+     * 以 future 的结果类型作为返回类型的 MethodParameter
+     */
+    private static final class ResultMethodParameter extends MethodParameter {
+
+        private final ResolvableType resultType;
+
+        ResultMethodParameter(MethodParameter returnType) {
+            super(returnType);
+            this.resultType = ResolvableType.forMethodParameter(returnType).getGeneric();
+        }
+
+        private ResultMethodParameter(ResultMethodParameter original) {
+            super(original);
+            this.resultType = original.resultType;
+        }
+
+        @Override
+        public Class<?> getParameterType() {
+            return resultType.toClass();
+        }
+
+        @Override
+        public Type getGenericParameterType() {
+            return resultType.getType();
+        }
+
+        @Override
+        public ResultMethodParameter clone() {
+            return new ResultMethodParameter(this);
+        }
+    }
+}
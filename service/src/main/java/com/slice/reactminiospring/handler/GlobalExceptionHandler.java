@@ -4,6 +4,7 @@ import com.slice.reactminiospring.common.R;
 import com.slice.reactminiospring.enums.HttpCodeEnum;
 import com.slice.reactminiospring.exception.ConditionException;
 import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
@@ -13,9 +14,17 @@ import org.springframework.web.bind.annotation.ResponseBody;
 @Slf4j
 public class GlobalExceptionHandler {
 
+    /**
+     * 响应已提交（流式下载写到一半失败）时不能再写错误体：会拼进已声明 Content-Length 的响应里。
+     * 重新抛出交给容器，由 Tomcat 中止连接，客户端立即看到截断而不是等到读超时
+     */
     @ResponseBody
     @ExceptionHandler(value = Exception.class)
-    public R<?> commonExceptionHandler(HttpServletRequest request, Exception e) {
+    public R<?> commonExceptionHandler(HttpServletRequest request, HttpServletResponse response, Exception e) throws Exception {
+        if (response.isCommitted()) {
+            log.warn("[全局异常] 响应已提交，中止连接： {}; 请求地址：{} {}", e.getMessage(), request.getMethod(), request.getRequestURI());
+            throw e;
+        }
         String errorMsg = e.getMessage();
         log.error("[全局异常] 错误信息： {}; 请求地址：{} {}", errorMsg, request.getMethod(), request.getRequestURI());
         return R.fail(HttpCodeEnum.FAIL.getCode(), errorMsg);
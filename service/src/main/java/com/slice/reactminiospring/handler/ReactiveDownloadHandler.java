@@ -0,0 +1,279 @@
+package com.slice.reactminiospring.handler;
+
+import com.slice.reactminiospring.config.DownloadConfigInfo;
+import com.slice.reactminiospring.service.DownloadManager;
+import com.slice.reactminiospring.service.DownloadPlan;
+import com.slice.reactminiospring.service.InFlightFetch;
+import com.slice.reactminiospring.service.MemoryBlock;
+import com.slice.reactminiospring.util.BufferPool;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.DefaultFileRegion;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.stream.ChunkedInput;
+import io.netty.handler.stream.ChunkedWriteHandler;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.reactivestreams.Publisher;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.netty.Connection;
+import reactor.netty.NettyPipeline;
+import reactor.netty.http.server.HttpServerRequest;
+import reactor.netty.http.server.HttpServerResponse;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 响应式下载（ReactiveDownloadServer 的 /files/downloadForWindows/{id}）
+ * - 协商、条件请求与缓存层次由 DownloadManager.plan 决定，与 Servlet 接口的响应一致；规划在 boundedElastic 上执行（会查 Redis / 数据库）
+ * - 磁盘片段用 sendfile（FileRegion，写到该片段时才打开文件）写出；堆外块直接包装租约中的数据发布，不复制进堆，租约随 release(plan) 归还
+ * - 拉取中的 tmp 文件同样以 FileRegion 写出已到达的部分：文件在 boundedElastic 上打开，事件循环线程上不做阻塞读取；
+ *   数据未到达时挂起写出，由拉取线程到达后唤醒（InFlightFetch.whenAvailable），不占线程
+ * - 堆内块经 ChunkedWriteHandler 按 64KB 写出：每段只是对一帧的解压（纯 CPU，无 I/O），只在 socket 可写时进行，慢速客户端只占用一段缓冲
+ */
+@Slf4j
+@Component
+public class ReactiveDownloadHandler {
+
+    private static final int CHUNK = BufferPool.BUFFER_SIZE;
+
+    @Resource
+    private DownloadManager downloadManager;
+
+    @Resource
+    private DownloadConfigInfo downloadConfigInfo;
+
+    private final AtomicLong active = new AtomicLong();
+    private final LongAdder responses = new LongAdder();
+    private final LongAdder aborted = new LongAdder();
+    private final LongAdder fetchWaits = new LongAdder();
+
+    public Publisher<Void> download(HttpServerRequest request, HttpServerResponse response) {
+        Long fileId;
+        try {
+            fileId = Long.valueOf(request.param("id"));
+        } catch (NumberFormatException e) {
+            return response.status(HttpStatus.NOT_FOUND.value()).send();
+        }
+        HttpHeaders headers = new HttpHeaders();
+        request.requestHeaders().forEach(e -> headers.add(e.getKey(), e.getValue()));
+        InetSocketAddress remote = request.remoteAddress();
+        String remoteAddr = remote == null || remote.getAddress() == null ? null : remote.getAddress().getHostAddress();
+        boolean head = HttpMethod.HEAD.equals(request.method());
+
+        return Mono.using(() -> downloadManager.plan(fileId, headers, remoteAddr, head),
+                        plan -> send(response, plan),
+                        downloadManager::release)
+                .subscribeOn(Schedulers.boundedElastic())
+                .onErrorResume(e -> !response.hasSentHeaders(), e -> {
+                    log.warn("reactive download failed. id={}: {}", fileId, e.getMessage());
+                    HttpStatus status = unwrap(e) instanceof TimeoutException
+                            ? HttpStatus.GATEWAY_TIMEOUT : HttpStatus.INTERNAL_SERVER_ERROR;
+                    return response.status(status.value()).send();
+                });
+    }
+
+    private Mono<Void> send(HttpServerResponse response, DownloadPlan plan) {
+        response.status(plan.getStatus().value());
+        plan.getHeaders().forEach((name, values) -> response.responseHeaders().set(name, values));
+        if (plan.getBody().isEmpty()) return response.send();
+
+        long timeout = downloadConfigInfo.getReactive().getFetchTimeout().toNanos();
+        // 首字节所在的拉取先等到数据：拉取失败发生在提交响应头之前时仍能返回正确的状态码
+        DownloadPlan.Slice first = plan.getBody().get(0);
+        Mono<Long> firstByte = first.getFetch() == null ? Mono.empty()
+                : awaitAvailable(first.getFetch(), first.getOffset(), timeout);
+
+        return firstByte.then(Mono.defer(() -> {
+            Connection[] connection = new Connection[1];
+            response.withConnection(c -> connection[0] = c);
+            chunkedWriter(connection[0]);
+            active.incrementAndGet();
+            responses.increment();
+            // 响应头之后逐个片段写出，上一个片段写完才创建下一个，同一时刻每个连接只有一个片段在途
+            Flux<Void> body = Flux.fromIterable(plan.getBody())
+                    .concatMap(slice -> writeSlice(connection[0].channel(), slice, timeout));
+            return response.then(body.then()).then()
+                    .doOnError(e -> {
+                        aborted.increment();
+                        log.debug("reactive download aborted: {}", e.getMessage());
+                    })
+                    .doFinally(s -> active.decrementAndGet());
+        }));
+    }
+
+    // 磁盘与拉取片段为 FileRegion（sendfile 零拷贝，本端口不启用 TLS），堆外块为包装租约的 ByteBuf，堆内块为按需解压的 ChunkedInput
+    private Mono<Void> writeSlice(Channel channel, DownloadPlan.Slice slice, long timeout) {
+        if (slice.getFile() != null) {
+            return write(channel, new DefaultFileRegion(slice.getFile(), slice.getOffset(), slice.getLength()));
+        }
+        if (slice.getOffHeap() != null) {
+            // 写完（或连接关闭使写出失败）之后才会 release(plan)，期间租约保证槽位不被复用
+            return write(channel, Unpooled.wrappedBuffer(slice.getOffHeap().view(slice.getOffset(), slice.getLength())));
+        }
+        if (slice.getFetch() != null) return writeFetch(channel, slice.getFetch(), slice.getOffset(), slice.getLength(), timeout);
+        return write(channel, new MemoryInput(slice.getMemory(), slice.getOffset(), slice.getLength()));
+    }
+
+    /**
+     * 拉取中的片段：等到数据到达后，把 [pos, 已到达位置) 作为一个 FileRegion 写出，写完再等下一段。
+     * tmp 文件在 boundedElastic 上打开（打开即钉住，结束时关闭），各段共用这一个 FileChannel
+     */
+    private Mono<Void> writeFetch(Channel channel, InFlightFetch fetch, long offset, long length, long timeout) {
+        long end = offset + length;
+        return awaitAvailable(fetch, offset, timeout)
+                .publishOn(Schedulers.boundedElastic())
+                .then(Mono.using(fetch::openForRead,
+                        reader -> Mono.just(offset)
+                                .expand(pos -> pos >= end ? Mono.empty()
+                                        : awaitAvailable(fetch, pos, timeout).flatMap(available -> {
+                                            long to = Math.min(available, end);
+                                            return write(channel, new SharedFileRegion(reader.channel(), pos, to - pos)).thenReturn(to);
+                                        }))
+                                .then(),
+                        ReactiveDownloadHandler::closeQuietly));
+    }
+
+    // 返回已到达的位置；超时映射为 TimeoutException，由 download 在提交响应头之前转为 504
+    private Mono<Long> awaitAvailable(InFlightFetch fetch, long pos, long timeout) {
+        return Mono.defer(() -> {
+            CompletableFuture<Long> available = fetch.whenAvailable(pos);
+            if (!available.isDone()) fetchWaits.increment();
+            return Mono.fromFuture(available.orTimeout(timeout, TimeUnit.NANOSECONDS));
+        }).onErrorMap(e -> unwrap(e) instanceof TimeoutException,
+                e -> new TimeoutException("waiting for " + fetch.getKey() + " at " + pos));
+    }
+
+    private static void closeQuietly(InFlightFetch.Reader reader) {
+        try {
+            reader.close();
+        } catch (IOException ignore) {
+        }
+    }
+
+    private static Mono<Void> write(Channel channel, Object message) {
+        return Mono.create(sink -> channel.writeAndFlush(message).addListener(f -> {
+            if (f.isSuccess()) sink.success();
+            else sink.error(f.cause());
+        }));
+    }
+
+    // 与 reactor-netty 的 sendFileChunked 相同：按需在 pipeline 中加入 ChunkedWriteHandler
+    private static void chunkedWriter(Connection connection) {
+        if (connection.channel().pipeline().get(ChunkedWriteHandler.class) != null) return;
+        connection.addHandlerLast(NettyPipeline.ChunkedWriter, new ChunkedWriteHandler());
+    }
+
+    private static Throwable unwrap(Throwable t) {
+        while (t instanceof CompletionException && t.getCause() != null) t = t.getCause();
+        return t;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("enabled", Boolean.TRUE.equals(downloadConfigInfo.getReactive().getEnabled()));
+        m.put("activeResponses", active.get());
+        m.put("responses", responses.sum());
+        m.put("aborted", aborted.sum());
+        m.put("fetchWaits", fetchWaits.sum());
+        return m;
+    }
+
+    // -------- 分段读取：由 ChunkedWriteHandler 在 socket 可写时调用 readChunk，只在事件循环线程上访问 --------
+    private abstract static class SliceInput implements ChunkedInput<ByteBuf> {
+        final long start;
+        final long end;
+        long pos;
+
+        SliceInput(long offset, long length) {
+            this.start = offset;
+            this.end = offset + length;
+            this.pos = offset;
+        }
+
+        // 不超过 CHUNK，且不跨越 CHUNK 对齐边界：与堆内压缩块的帧对齐，每段只解压一帧
+        int nextLength(long limit) {
+            long boundary = (pos / CHUNK + 1) * CHUNK;
+            return (int) (Math.min(Math.min(limit, end), boundary) - pos);
+        }
+
+        @Override
+        public boolean isEndOfInput() {
+            return pos >= end;
+        }
+
+        @Deprecated
+        @Override
+        public ByteBuf readChunk(ChannelHandlerContext ctx) throws Exception {
+            return readChunk(ctx.alloc());
+        }
+
+        @Override
+        public long length() {
+            return end - start;
+        }
+
+        @Override
+        public long progress() {
+            return pos - start;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static final class MemoryInput extends SliceInput {
+        private final MemoryBlock block;
+
+        MemoryInput(MemoryBlock block, long offset, long length) {
+            super(offset, length);
+            this.block = block;
+        }
+
+        @Override
+        public ByteBuf readChunk(ByteBufAllocator allocator) throws IOException {
+            if (pos >= end) return null;
+            int n = nextLength(end);
+            ByteBuf buf = allocator.buffer(n);
+            try {
+                block.writeTo(new ByteBufOutputStream(buf), pos, n);
+            } catch (IOException | RuntimeException e) {
+                buf.release();
+                throw e;
+            }
+            pos += n;
+            return buf;
+        }
+    }
+
+    // 同一拉取的各段共用 Reader 的 FileChannel：单段写完释放时不关闭文件，由 Reader 统一关闭
+    private static final class SharedFileRegion extends DefaultFileRegion {
+        SharedFileRegion(FileChannel file, long position, long count) {
+            super(file, position, count);
+        }
+
+        @Override
+        protected void deallocate() {
+        }
+    }
+}
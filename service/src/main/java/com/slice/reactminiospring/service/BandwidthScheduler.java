@@ -0,0 +1,227 @@
+package com.slice.reactminiospring.service;
+
+import com.slice.reactminiospring.config.DownloadConfigInfo;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import com.slice.reactminiospring.util.BufferPool;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.catalina.connector.CoyoteOutputStream;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 下载响应的出口带宽调度
+ * - 每个客户端一个令牌桶，同一客户端的多条并行连接共用，连接数多的客户端拿不到更多带宽
+ * - 客户端的速率 = 全局速率 × 权重 / 活跃客户端权重之和，再受 per-client-rate 限制；全局令牌桶兜底总出口
+ * - 令牌按预约方式扣减（可透支），写出前按欠账睡眠，同一桶上的并发写入按到达顺序排队
+ */
+@Slf4j
+@Component
+public class BandwidthScheduler {
+
+    // 每次预约的最大字节数，越小调度越平滑
+    private static final int CHUNK = 16 * 1024;
+
+    @Resource
+    private DownloadConfigInfo downloadConfigInfo;
+
+    private boolean enabled;
+    private TokenBucket global;
+    private final ConcurrentMap<String, Client> clients = new ConcurrentHashMap<>();
+    // 有连接正在写出的客户端权重之和
+    private final AtomicLong activeWeight = new AtomicLong();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder throttledNanos = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        DownloadConfigInfo.Bandwidth cfg = downloadConfigInfo.getBandwidth();
+        enabled = Boolean.TRUE.equals(cfg.getEnabled()) && cfg.getGlobalRate().toBytes() > 0;
+        global = new TokenBucket(cfg.getBurst().toBytes());
+        if (enabled) {
+            log.info("BandwidthScheduler initialized. globalRate={}/s perClientRate={}/s burst={}",
+                    cfg.getGlobalRate(), cfg.getPerClientRate(), cfg.getBurst());
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 包装响应输出流；返回的流 close 时只注销客户端，不关闭底层流
+     */
+    public ThrottledStream open(String clientId, OutputStream out) {
+        Client client = clients.compute(clientId, (k, c) -> {
+            if (c == null) {
+                DownloadConfigInfo.Bandwidth cfg = downloadConfigInfo.getBandwidth();
+                c = new Client(cfg.getWeights().getOrDefault(k, 1), cfg.getBurst().toBytes());
+            }
+            if (c.streams++ == 0) activeWeight.addAndGet(c.weight);
+            return c;
+        });
+        return new ThrottledStream(clientId, client, out);
+    }
+
+    private void release(String clientId) {
+        clients.computeIfPresent(clientId, (k, c) -> {
+            if (--c.streams > 0) return c;
+            activeWeight.addAndGet(-c.weight);
+            return null;
+        });
+    }
+
+    // 客户端当前可用的速率（字节/秒）
+    private double clientRate(Client client) {
+        DownloadConfigInfo.Bandwidth cfg = downloadConfigInfo.getBandwidth();
+        double share = (double) cfg.getGlobalRate().toBytes() * client.weight / Math.max(client.weight, activeWeight.get());
+        long cap = cfg.getPerClientRate().toBytes();
+        return cap > 0 ? Math.min(share, cap) : share;
+    }
+
+    private void acquire(Client client, int bytes) throws InterruptedIOException {
+        long wait = Math.max(client.bucket.reserve(bytes, clientRate(client)),
+                global.reserve(bytes, downloadConfigInfo.getBandwidth().getGlobalRate().toBytes()));
+        bytesWritten.add(bytes);
+        if (wait <= 0) return;
+        throttledNanos.add(wait);
+        try {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("bandwidth wait interrupted");
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("enabled", enabled);
+        m.put("activeClients", clients.size());
+        m.put("activeWeight", activeWeight.get());
+        m.put("bytesWritten", bytesWritten.sum());
+        m.put("throttledMillis", TimeUnit.NANOSECONDS.toMillis(throttledNanos.sum()));
+        return m;
+    }
+
+    private static final class Client {
+        final int weight;
+        final TokenBucket bucket;
+        // 只在 ConcurrentHashMap.compute 中修改
+        int streams;
+
+        Client(int weight, long burst) {
+            this.weight = Math.max(1, weight);
+            this.bucket = new TokenBucket(burst);
+        }
+    }
+
+    private static final class TokenBucket {
+        private final long capacity;
+        private double tokens;
+        private long last = System.nanoTime();
+
+        TokenBucket(long capacity) {
+            this.capacity = capacity;
+            this.tokens = capacity;
+        }
+
+        // 预约 n 个令牌，返回需要等待的纳秒数；令牌可以透支，由等待偿还
+        synchronized long reserve(long n, double ratePerSec) {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - last) * ratePerSec / 1e9);
+            last = now;
+            tokens -= n;
+            return tokens >= 0 ? 0 : (long) (-tokens / ratePerSec * 1e9);
+        }
+    }
+
+    /**
+     * 限速输出流：每写出 CHUNK 字节向客户端桶与全局桶各预约一次
+     * 底层是 Tomcat 输出流时可用 write(ByteBuffer) 直接写出堆外数据，计量方式相同
+     */
+    public final class ThrottledStream extends OutputStream {
+        private final String clientId;
+        private final Client client;
+        private final OutputStream out;
+        private boolean closed;
+
+        private ThrottledStream(String clientId, Client client, OutputStream out) {
+            this.clientId = clientId;
+            this.client = client;
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            acquire(client, 1);
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int n = Math.min(len, CHUNK);
+                acquire(client, n);
+                out.write(b, off, n);
+                off += n;
+                len -= n;
+            }
+        }
+
+        /**
+         * 底层输出流能否直接接收 ByteBuffer（不经过堆内数组）
+         */
+        public boolean acceptsByteBuffer() {
+            return out instanceof CoyoteOutputStream;
+        }
+
+        /**
+         * 写出 src 的剩余字节并推进其 position；底层不接收 ByteBuffer 时经共享缓冲复制
+         */
+        public void write(ByteBuffer src) throws IOException {
+            if (!acceptsByteBuffer()) {
+                byte[] buf = BufferPool.acquire();
+                try {
+                    while (src.hasRemaining()) {
+                        int n = Math.min(buf.length, src.remaining());
+                        src.get(buf, 0, n);
+                        write(buf, 0, n);
+                    }
+                } finally {
+                    BufferPool.release(buf);
+                }
+                return;
+            }
+            CoyoteOutputStream coyote = (CoyoteOutputStream) out;
+            while (src.hasRemaining()) {
+                int n = Math.min(src.remaining(), CHUNK);
+                acquire(client, n);
+                coyote.write(src.slice(src.position(), n));
+                src.position(src.position() + n);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            release(clientId);
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package com.slice.reactminiospring.service;
+
+import com.slice.reactminiospring.config.DownloadConfigInfo;
+import com.slice.reactminiospring.util.BufferPool;
+import com.slice.reactminiospring.util.RedisUtil;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 跨节点的回源去重（分布式 single-flight）
+ * - 每个块/整文件的回源由 Redis 租约 fetch:lease:<key> 决定，只有持有者访问 MinIO
+ * - 其他节点向持有者的 /internal/cache 流式复制，持有者边拉取边转发，无需等待拉取结束
+ * - 持有者在拉取期间定期续期；节点宕机后租约在 lease-ttl 内过期，其他节点接管
+ * - 续期失败的租约记为丢失并停止续期；复制时对端在 peer-timeout 内没有新数据即断开，改为直接回源
+ */
+@Slf4j
+@Component
+public class ClusterFetchCoordinator {
+
+    public static final String TOKEN_HEADER = "X-Cluster-Token";
+    // 调用方节点的 node-url，归属节点据此确认读穿请求来自环上成员
+    public static final String NODE_HEADER = "X-Cluster-Node";
+    private static final String LEASE_PREFIX = "fetch:lease:";
+
+    @Resource
+    private DownloadConfigInfo downloadConfigInfo;
+    @Resource
+    private RedisUtil redisUtil;
+    @Resource
+    private Environment env;
+
+    private boolean enabled;
+    private String nodeUrl;
+    // 租约值带上进程标识：同一地址重启后的进程不会把上一进程遗留的租约当成自己的
+    private String leaseValue;
+    private HttpClient httpClient;
+    // 租约续期与复制卡顿检测
+    private ScheduledExecutorService timer;
+
+    @PostConstruct
+    public void init() {
+        DownloadConfigInfo.Cluster cfg = downloadConfigInfo.getCluster();
+        enabled = Boolean.TRUE.equals(cfg.getEnabled());
+        if (!enabled) return;
+        // 内部接口可以按 key 读取任意缓存数据，不允许无口令开放
+        if (cfg.getSecret() == null || cfg.getSecret().isBlank()) {
+            throw new IllegalStateException("download.cluster.secret must be set when download.cluster.enabled=true");
+        }
+
+        nodeUrl = cfg.getNodeUrl();
+        if (nodeUrl == null || nodeUrl.isBlank()) {
+            String port = cfg.getInternalPort() > 0 ? String.valueOf(cfg.getInternalPort()) : env.getProperty("server.port", "8080");
+            nodeUrl = "http://" + env.getProperty("server.address", "localhost") + ":" + port;
+            log.warn("download.cluster.node-url not set, using {}", nodeUrl);
+        }
+        leaseValue = nodeUrl + "#" + UUID.randomUUID();
+        httpClient = HttpClient.newBuilder()
+                .connectTimeout(cfg.getPeerTimeout())
+                .build();
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "cluster-fetch-timer");
+            t.setDaemon(true);
+            return t;
+        });
+        log.info("ClusterFetchCoordinator initialized. nodeUrl={} leaseTtl={}", nodeUrl, cfg.getLeaseTtl());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (timer != null) timer.shutdownNow();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String getNodeUrl() {
+        return nodeUrl;
+    }
+
+    /**
+     * 尝试获得 key 的回源租约，成功后自动续期直到 close；已被其他节点持有时返回 null
+     */
+    public Lease tryAcquire(String key) {
+        long ttl = downloadConfigInfo.getCluster().getLeaseTtl().toMillis();
+        if (!redisUtil.setIfAbsent(LEASE_PREFIX + key, leaseValue, ttl, TimeUnit.MILLISECONDS)) return null;
+        Lease lease = new Lease(key);
+        lease.renewal = timer.scheduleAtFixedRate(() -> renew(lease, ttl), ttl / 3, ttl / 3, TimeUnit.MILLISECONDS);
+        return lease;
+    }
+
+    // 周期任务抛出异常会被静默取消，这里不让异常逃出：续期失败（Redis 异常或租约已被其他节点获得）即记为丢失并停止续期，
+    // 本节点的拉取照常完成，此后其他节点可能各自回源
+    private void renew(Lease lease, long ttl) {
+        boolean renewed;
+        try {
+            renewed = redisUtil.expireIfEquals(LEASE_PREFIX + lease.key, leaseValue, ttl);
+        } catch (RuntimeException e) {
+            log.warn("renew fetch lease {} failed: {}", lease.key, e.getMessage());
+            renewed = false;
+        }
+        if (renewed) return;
+        lease.lost = true;
+        ScheduledFuture<?> renewal = lease.renewal;
+        if (renewal != null) renewal.cancel(false);
+        log.warn("fetch lease {} lost, other nodes may fetch it from origin", lease.key);
+    }
+
+    /**
+     * 当前租约持有者的地址；无人持有或持有者是本节点（上一进程遗留）时返回 null
+     */
+    public String owner(String key) {
+        Object value = redisUtil.get(LEASE_PREFIX + key);
+        if (!(value instanceof String)) return null;
+        String owner = ((String) value).substring(0, Math.max(0, ((String) value).lastIndexOf('#')));
+        if (owner.isEmpty() || owner.equals(nodeUrl)) return null;
+        return owner;
+    }
+
+    /**
+     * 从 owner 节点复制 key 的数据，从 fetch 已写入的位置续写；数据完整返回 true
+     */
+    public boolean copyFromPeer(String owner, InFlightFetch fetch) {
+        return copy(owner, fetch, "");
+    }
+
+    /**
+     * 向归属节点读取（一致性哈希节点共享缓存）：对方未缓存时由对方回源并缓存，再转发给本节点
+     */
+    public boolean readThroughPeer(String owner, InFlightFetch fetch, String object, String etag, long size) {
+        return copy(owner, fetch, "&object=" + URLEncoder.encode(object, StandardCharsets.UTF_8)
+                + "&etag=" + URLEncoder.encode(etag, StandardCharsets.UTF_8) + "&size=" + size);
+    }
+
+    private boolean copy(String owner, InFlightFetch fetch, String extraQuery) {
+        long from = fetch.getWritten();
+        URI uri = URI.create(owner + "/internal/cache?key=" + URLEncoder.encode(fetch.getKey(), StandardCharsets.UTF_8)
+                + "&offset=" + from + extraQuery);
+        HttpRequest.Builder builder = HttpRequest.newBuilder(uri)
+                .timeout(downloadConfigInfo.getCluster().getPeerTimeout())
+                .header(NODE_HEADER, nodeUrl)
+                .GET();
+        String secret = downloadConfigInfo.getCluster().getSecret();
+        if (secret != null && !secret.isEmpty()) builder.header(TOKEN_HEADER, secret);
+        HttpRequest request = builder.build();
+        StallWatch watch = null;
+        try {
+            HttpResponse<InputStream> resp = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            byte[] buf = BufferPool.acquire();
+            try (InputStream in = resp.body()) {
+                if (resp.statusCode() != 200) return false;
+                // 请求超时只管到响应头：之后每个 peer-timeout 周期内没有新数据就关闭响应流，阻塞的 read 随之抛出异常
+                long period = downloadConfigInfo.getCluster().getPeerTimeout().toMillis();
+                watch = new StallWatch(in);
+                watch.check = timer.scheduleAtFixedRate(watch, period, period, TimeUnit.MILLISECONDS);
+                long remaining = fetch.getLength() - from;
+                int r;
+                while (remaining > 0 && !fetch.isFailed() && (r = in.read(buf, 0, (int) Math.min(buf.length, remaining))) != -1) {
+                    fetch.append(buf, 0, r);
+                    remaining -= r;
+                    watch.received += r;
+                }
+                return remaining == 0;
+            } finally {
+                if (watch != null) watch.check.cancel(false);
+                BufferPool.release(buf);
+            }
+        } catch (IOException e) {
+            String reason = watch != null && watch.stalled ? "stalled for " + downloadConfigInfo.getCluster().getPeerTimeout() : e.getMessage();
+            log.warn("copy {} from peer {} failed: {}", fetch.getKey(), owner, reason);
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * 内部接口是否对该请求可见：集群未开启时不存在；配置了内部端口时只在该端口上提供
+     */
+    public boolean servesInternal(HttpServletRequest request) {
+        if (!enabled) return false;
+        int internalPort = downloadConfigInfo.getCluster().getInternalPort();
+        return internalPort <= 0 || request.getLocalPort() == internalPort;
+    }
+
+    /**
+     * 内部接口鉴权：口令按常量时间比较
+     */
+    public boolean authorized(HttpServletRequest request) {
+        String secret = downloadConfigInfo.getCluster().getSecret();
+        String token = request.getHeader(TOKEN_HEADER);
+        if (secret == null || secret.isEmpty() || token == null) return false;
+        return MessageDigest.isEqual(secret.getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // 复制卡顿检测：两次检查之间没有收到新数据时关闭响应流
+    private static final class StallWatch implements Runnable {
+        private final InputStream in;
+        private volatile long received;
+        private long lastSeen;
+        private volatile boolean stalled;
+        private ScheduledFuture<?> check;
+
+        StallWatch(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public void run() {
+            long now = received;
+            if (now != lastSeen) {
+                lastSeen = now;
+                return;
+            }
+            stalled = true;
+            try {
+                in.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+    /**
+     * 持有中的回源租约
+     */
+    public final class Lease implements AutoCloseable {
+        private final String key;
+        private volatile ScheduledFuture<?> renewal;
+        private volatile boolean lost;
+
+        private Lease(String key) {
+            this.key = key;
+        }
+
+        /**
+         * 续期失败，租约可能已过期或被其他节点获得
+         */
+        public boolean isLost() {
+            return lost;
+        }
+
+        @Override
+        public void close() {
+            renewal.cancel(false);
+            redisUtil.delIfEquals(LEASE_PREFIX + key, leaseValue);
+        }
+    }
+}
@@ -0,0 +1,413 @@
+package com.slice.reactminiospring.service;
+
+import com.slice.reactminiospring.config.DownloadConfigInfo;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import jakarta.servlet.ServletRequest;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * 磁盘块缓存的容量管理
+ * - 记录 download.disk.dir 下已落盘的块/整文件，超过 max-size 时按 LRU 或采样 LFU 淘汰
+ * - 拉取开始写 tmp 时即按完整长度在预算中占位，完成或失败时归还，进行中的整文件拉取同样计入 max-size
+ * - 索引持久化到 index 文件，启动时按索引逐项校验恢复，不遍历整个目录
+ * - 只有索引缺失、损坏或上次未正常退出时，启动时遍历一次目录：删除 .tmp 残留，收编索引之外的缓存文件
+ * - 读取中的文件（sendfile、流式复制、拉取读者）先钉住，淘汰时跳过；后台任务只操作内存索引
+ * - 另有低频的 tmp 清理：只看文件名与修改时间，删除不属于进行中拉取的过期 .tmp（如中途被杀的压缩副本）
+ */
+@Slf4j
+@Component
+public class DiskChunkStore {
+
+    // LFU 模式下从 LRU 最老的若干项中挑访问次数最少的淘汰，新写入的项不会被立即淘汰
+    private static final int LFU_SAMPLE = 64;
+    private static final String TMP_SUFFIX = ".tmp";
+    // 存在即表示进程在运行，正常退出时删除；启动时仍在说明上次崩溃，索引之后写入的文件和 tmp 残留需要遍历找回
+    private static final String RUNNING_MARKER = ".running";
+    // 解除钉住后的保护期：sendfile 的文件在请求结束（释放钉住）之后才由 Tomcat 打开
+    private static final long PIN_GRACE_MS = 5_000;
+    private static final String REQUEST_PINS_ATTR = DiskChunkStore.class.getName() + ".pins";
+
+    @Resource
+    private DownloadConfigInfo downloadConfigInfo;
+
+    private Path root;
+    private long maxBytes;
+    // accessOrder = true：迭代顺序即 LRU 顺序；key 为相对 root 的路径
+    private final LinkedHashMap<String, Entry> index = new LinkedHashMap<>(1024, 0.75f, true);
+    private long usedBytes;
+    // 进行中拉取按完整长度占用的预算，及其 tmp 文件（key 同 index），清理时跳过
+    private long reservedBytes;
+    private final Set<String> activeTmp = new HashSet<>();
+    private boolean dirty;
+    // 正在读取的文件，key 同 index；计数归零后保留到保护期结束
+    private final Map<String, Pin> pins = new HashMap<>();
+
+    private long hits;
+    private long evictions;
+    private long evictedBytes;
+    private long tmpCleaned;
+    private long pinnedSkips;
+
+    @PostConstruct
+    public void init() throws IOException {
+        DownloadConfigInfo.Disk cfg = downloadConfigInfo.getDisk();
+        root = new File(cfg.getDir()).getAbsoluteFile().toPath();
+        maxBytes = cfg.getMaxSize().toBytes();
+        Files.createDirectories(root);
+        Path marker = root.resolve(RUNNING_MARKER);
+        boolean crashed = Files.exists(marker);
+        if (!loadIndex() || crashed) {
+            log.info("disk cache index missing or stale (crashed={}), scanning {}", crashed, root);
+            scan();
+        }
+        Files.write(marker, new byte[0]);
+        synchronized (this) {
+            evictIfNeeded();
+        }
+        log.info("DiskChunkStore initialized. dir={} maxSize={} policy={} entries={} used={}",
+                root, cfg.getMaxSize(), cfg.getPolicy(), index.size(), usedBytes);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        persistIndex();
+        try {
+            Files.deleteIfExists(root.resolve(RUNNING_MARKER));
+        } catch (IOException e) {
+            log.warn("remove disk cache marker failed: {}", e.getMessage());
+        }
+    }
+
+    public File getRoot() {
+        return root.toFile();
+    }
+
+    /**
+     * 登记一个刚落盘的缓存文件，必要时淘汰旧文件腾出空间
+     */
+    public synchronized void record(File file) {
+        String key = relativeKey(file);
+        if (key == null) return;
+        long size = file.length();
+        Entry old = index.put(key, new Entry(size, 1));
+        if (old != null) usedBytes -= old.size;
+        usedBytes += size;
+        dirty = true;
+        evictIfNeeded();
+    }
+
+    /**
+     * 拉取开始写 tmp 前按完整长度占用预算，超额时先淘汰旧文件；完成（随后 record 正式文件）或失败时须 unreserve
+     */
+    public synchronized void reserve(File tmp, long bytes) {
+        String key = relativeKey(tmp);
+        if (key != null) activeTmp.add(key);
+        reservedBytes += bytes;
+        evictIfNeeded();
+    }
+
+    public synchronized void unreserve(File tmp, long bytes) {
+        String key = relativeKey(tmp);
+        if (key != null) activeTmp.remove(key);
+        reservedBytes -= bytes;
+    }
+
+    /**
+     * 命中一次磁盘缓存：更新 LRU 顺序与访问计数
+     */
+    public synchronized void touch(File file) {
+        String key = relativeKey(file);
+        if (key == null) return;
+        Entry e = index.get(key);
+        if (e == null) return;
+        e.hits++;
+        hits++;
+        dirty = true;
+    }
+
+    /**
+     * 钉住一个即将读取的缓存文件，淘汰时跳过，读完后须 unpin
+     */
+    public synchronized void pin(File file) {
+        String key = relativeKey(file);
+        if (key == null) return;
+        pins.computeIfAbsent(key, k -> new Pin()).count++;
+    }
+
+    public synchronized void unpin(File file) {
+        String key = relativeKey(file);
+        Pin p = key == null ? null : pins.get(key);
+        if (p == null || p.count == 0) return;
+        if (--p.count == 0) p.releasedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * 钉住到请求结束（含异步完成），由请求监听器调用 releaseRequestPins 释放；用于交给 sendfile 或响应体的文件
+     */
+    @SuppressWarnings("unchecked")
+    public void pinUntilRequestEnds(ServletRequest request, File file) {
+        pin(file);
+        List<File> files = (List<File>) request.getAttribute(REQUEST_PINS_ATTR);
+        if (files == null) {
+            files = new ArrayList<>(2);
+            request.setAttribute(REQUEST_PINS_ATTR, files);
+        }
+        files.add(file);
+    }
+
+    @SuppressWarnings("unchecked")
+    public void releaseRequestPins(ServletRequest request) {
+        List<File> files = (List<File>) request.getAttribute(REQUEST_PINS_ATTR);
+        if (files == null) return;
+        request.removeAttribute(REQUEST_PINS_ATTR);
+        for (File f : files) unpin(f);
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("dir", root.toString());
+        m.put("policy", downloadConfigInfo.getDisk().getPolicy());
+        m.put("maxBytes", maxBytes);
+        m.put("usedBytes", usedBytes);
+        m.put("reservedBytes", reservedBytes);
+        m.put("activeTmp", activeTmp.size());
+        m.put("entries", index.size());
+        m.put("hitCount", hits);
+        m.put("evictionCount", evictions);
+        m.put("evictionBytes", evictedBytes);
+        m.put("tmpCleaned", tmpCleaned);
+        m.put("pinned", pins.values().stream().filter(p -> p.count > 0).count());
+        m.put("evictionPinnedSkips", pinnedSkips);
+        return m;
+    }
+
+    // -------- 后台任务：只操作内存索引，淘汰解除钉住后积压的超额部分，清理过期钉住记录，持久化索引 --------
+    @Scheduled(fixedDelay = 5, initialDelay = 1, timeUnit = TimeUnit.MINUTES)
+    public void clean() {
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            pins.values().removeIf(p -> p.count == 0 && now - p.releasedAt >= PIN_GRACE_MS);
+            evictIfNeeded();
+        }
+        persistIndex();
+    }
+
+    // -------- 低频 tmp 清理：删除不属于进行中拉取、长时间未写入的 .tmp；只读目录项与修改时间，不读文件内容 --------
+    @Scheduled(fixedDelay = 30, initialDelay = 30, timeUnit = TimeUnit.MINUTES)
+    public void sweepTmp() {
+        long deadline = System.currentTimeMillis() - downloadConfigInfo.getDisk().getTmpMaxAge().toMillis();
+        try (Stream<Path> files = Files.walk(root, 2)) {
+            files.filter(p -> !p.getParent().equals(root) && p.getFileName().toString().endsWith(TMP_SUFFIX))
+                    .forEach(p -> {
+                        String key = root.relativize(p).toString();
+                        synchronized (this) {
+                            if (activeTmp.contains(key)) return;
+                        }
+                        File f = p.toFile();
+                        // 压缩副本等不登记的 tmp 写入时会刷新修改时间，长时间未更新说明写入方已不存在
+                        if (f.lastModified() >= deadline || !f.delete()) return;
+                        synchronized (this) {
+                            tmpCleaned++;
+                        }
+                        log.info("removed stale temp file {}", p);
+                    });
+        } catch (IOException | UncheckedIOException e) {
+            log.warn("disk cache tmp sweep failed: {}", e.getMessage());
+        }
+    }
+
+    // -------- 启动时遍历目录：删除 tmp 残留（启动时没有进行中的拉取），收编索引之外的缓存文件 --------
+    private void scan() {
+        List<Path> adopt = new ArrayList<>();
+        try (Stream<Path> files = Files.walk(root, 2)) {
+            files.filter(Files::isRegularFile).forEach(p -> {
+                // 只管理 <root>/<目录>/<文件>，根目录下的 slab、索引文件不归此处管理
+                if (p.getParent().equals(root)) return;
+                if (p.getFileName().toString().endsWith(TMP_SUFFIX)) {
+                    try {
+                        Files.deleteIfExists(p);
+                        tmpCleaned++;
+                        log.info("removed stale temp file {}", p);
+                    } catch (IOException e) {
+                        log.warn("remove stale temp file {} failed: {}", p, e.getMessage());
+                    }
+                    return;
+                }
+                adopt.add(p);
+            });
+        } catch (IOException e) {
+            log.warn("disk cache scan failed: {}", e.getMessage());
+        }
+
+        synchronized (this) {
+            for (Path p : adopt) {
+                String key = root.relativize(p).toString();
+                if (index.containsKey(key)) continue;
+                long size = p.toFile().length();
+                index.put(key, new Entry(size, 1));
+                usedBytes += size;
+                dirty = true;
+            }
+        }
+    }
+
+    // 调用方持有 this 锁；读取中的文件跳过，全部在读取时留到下次写入或后台任务
+    private void evictIfNeeded() {
+        boolean lfu = downloadConfigInfo.getDisk().getPolicy() == DownloadConfigInfo.DiskEvictionPolicy.LFU;
+        long now = System.currentTimeMillis();
+        int attempts = index.size();
+        while (usedBytes + reservedBytes > maxBytes && !index.isEmpty() && attempts-- > 0) {
+            String victim = lfu ? lfuVictim(now) : lruVictim(now);
+            if (victim == null) break;
+            Entry e = index.remove(victim);
+            try {
+                // Windows 下删除仍被打开的文件会失败，放回后稍后再试
+                Files.deleteIfExists(root.resolve(victim));
+                usedBytes -= e.size;
+                evictions++;
+                evictedBytes += e.size;
+            } catch (IOException ex) {
+                index.put(victim, e);
+                log.debug("evict {} failed: {}", victim, ex.getMessage());
+            }
+            dirty = true;
+        }
+    }
+
+    private boolean isPinned(String key, long now) {
+        Pin p = pins.get(key);
+        if (p == null || (p.count == 0 && now - p.releasedAt >= PIN_GRACE_MS)) return false;
+        pinnedSkips++;
+        return true;
+    }
+
+    // 遍历 keySet 不改变访问顺序
+    private String lruVictim(long now) {
+        for (String key : index.keySet()) {
+            if (!isPinned(key, now)) return key;
+        }
+        return null;
+    }
+
+    private String lfuVictim(long now) {
+        String victim = null;
+        long minHits = Long.MAX_VALUE;
+        int sampled = 0;
+        // 遍历 entrySet 不改变访问顺序
+        for (Map.Entry<String, Entry> e : index.entrySet()) {
+            if (isPinned(e.getKey(), now)) continue;
+            if (e.getValue().hits < minHits) {
+                minHits = e.getValue().hits;
+                victim = e.getKey();
+            }
+            if (++sampled >= LFU_SAMPLE) break;
+        }
+        return victim;
+    }
+
+    private String relativeKey(File file) {
+        Path p = file.getAbsoluteFile().toPath();
+        if (!p.startsWith(root)) return null;
+        return root.relativize(p).toString();
+    }
+
+    // -------- 索引持久化：每行 path \t size \t hits，按 LRU 顺序 --------
+    // 返回索引是否完整读出；缺失或损坏时由调用方遍历目录重建
+    private boolean loadIndex() {
+        Path indexFile = root.resolve(downloadConfigInfo.getDisk().getIndexFile());
+        if (!Files.exists(indexFile)) return false;
+        int dropped = 0;
+        try (BufferedReader reader = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+            String line;
+            synchronized (this) {
+                while ((line = reader.readLine()) != null) {
+                    String[] parts = line.split("\t");
+                    if (parts.length != 3) continue;
+                    long size = Long.parseLong(parts[1]);
+                    // 只校验索引里的文件，大小不符（写了一半、被替换）的丢弃
+                    File f = root.resolve(parts[0]).toFile();
+                    if (!f.isFile() || f.length() != size) {
+                        dropped++;
+                        continue;
+                    }
+                    index.put(parts[0], new Entry(size, Long.parseLong(parts[2])));
+                    usedBytes += size;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            log.warn("disk cache index {} unreadable, rebuilding from directory: {}", indexFile, e.getMessage());
+            return false;
+        }
+        if (dropped > 0) log.info("dropped {} stale disk cache index entries", dropped);
+        return true;
+    }
+
+    private void persistIndex() {
+        List<String> lines;
+        synchronized (this) {
+            if (!dirty) return;
+            lines = new ArrayList<>(index.size());
+            for (Map.Entry<String, Entry> e : index.entrySet()) {
+                lines.add(e.getKey() + "\t" + e.getValue().size + "\t" + e.getValue().hits);
+            }
+            dirty = false;
+        }
+        Path indexFile = root.resolve(downloadConfigInfo.getDisk().getIndexFile());
+        Path tmp = indexFile.resolveSibling(indexFile.getFileName() + TMP_SUFFIX);
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                for (String line : lines) {
+                    writer.write(line);
+                    writer.newLine();
+                }
+            }
+            try {
+                Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            synchronized (this) { dirty = true; }
+            log.warn("persist disk cache index failed: {}", e.getMessage());
+        }
+    }
+
+    private static final class Pin {
+        int count;
+        long releasedAt;
+    }
+
+    private static final class Entry {
+        final long size;
+        long hits;
+
+        Entry(long size, long hits) {
+            this.size = size;
+            this.hits = hits;
+        }
+    }
+}
@@ -2,38 +2,91 @@ package com.slice.reactminiospring.service;
 
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.Scheduler;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.slice.reactminiospring.config.DownloadConfigInfo;
 import com.slice.reactminiospring.entity.Files;
 import com.slice.reactminiospring.mapper.FilesMapper;
 import com.slice.reactminiospring.model.CachedObjectStat;
+import com.slice.reactminiospring.util.BufferPool;
 import com.slice.reactminiospring.util.MinioUtil;
 import com.slice.reactminiospring.util.RedisUtil;
-import io.minio.GetObjectResponse;
-import io.minio.StatObjectResponse;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.Resource;
+import org.apache.catalina.connector.ClientAbortException;
+import org.apache.catalina.connector.CoyoteOutputStream;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.core.task.support.ExecutorServiceAdapter;
 import org.springframework.stereotype.Service;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletRequest;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardCopyOption;
 import java.time.Duration;
-import java.util.Objects;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 import java.util.logging.Level;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
 import java.util.logging.Logger;
 
 /**
  * DownloadManager (完整版本)
  * - 双层缓存：Caffeine (local) + Redis (shared)
- * - 分片 & 整文件支持（streamRange + streamFull）
- * - in-flight dedupe（单节点）
- * - 重试、原子写入 tmp -> rename
+ * - 分片 & 整文件支持（streamRange + streamFull），多区间 Range 返回 multipart/byteranges
+ * - 条件请求（If-None-Match / If-Modified-Since / If-Match / If-Unmodified-Since / If-Range）与 HEAD
+ *   只依据元数据缓存应答，304/412 不触碰块缓存和 MinIO
+ * - 块缓存：按 download.block-size 对齐，不同客户端的分片边界共享同一份缓存
+ * - 缓存按内容标识（ETag + 大小）存放：对象被覆盖不会读到旧数据，相同内容的不同对象共享一份缓存
+ * - chunkCache 按字节预算（weigher）淘汰，超大块与只访问一次的块不进堆；可压缩的块按 64KB 帧 LZ4 压缩后存放
+ * - 可选堆外热块层（OffHeapChunkStore），开启后热块不再占用堆
+ * - in-flight dedupe（单节点），拉取中的数据边写 tmp 边推给首个请求方与所有等待者
+ * - 重试（从已写位置续传）、原子写入 tmp -> rename
+ * - 读取方全部断开的拉取（孤儿拉取）按进度与热度决定继续填充还是中止回源
+ * - 顺序预读（read-ahead）：检测相邻区间请求，按字节预算提前拉取后续块，超时未用则取消
+ * - 发布预热（prewarm）：新文件在 MQTT 广播前拉入块缓存
+ * - 磁盘缓存由 DiskChunkStore 管理容量（LRU/LFU 淘汰、持久化索引、tmp 残留清理）
+ * - 磁盘缓存命中走容器 sendfile 零拷贝，字节不经过 Java 堆
+ * - 返回 ResponseEntity<StreamingResponseBody>：响应体只写一次，在 MVC 异步线程中流式写出
+ *
+ * - 可选节点共享缓存（PeerRing）：块按一致性哈希归属节点，本地未命中先向归属节点读穿
+ * - 可选跨节点回源去重（ClusterFetchCoordinator）：Redis 租约决定唯一回源节点，其他节点从该节点流式复制
  *
  * 注意：
  * - Redis 存储的是轻量 DTO CachedObjectStat，而不是 MinIO SDK 对象
- * - 若需跨节点 in-flight 去重，请在 fetchAndCacheChunk 前加分布式锁（Redisson）
  */
 @Service
 public class DownloadManager {
@@ -42,28 +95,117 @@ public class DownloadManager {
     @Resource private MinioUtil minioUtil;
     @Resource private FilesMapper filesMapper;
     @Resource private RedisUtil redisUtil;
+    @Resource private DownloadConfigInfo downloadConfigInfo;
+    @Resource private OffHeapChunkStore offHeapChunkStore;
+    @Resource private DiskChunkStore diskChunkStore;
+    @Resource private ClusterFetchCoordinator clusterFetch;
+    @Resource private PeerRing peerRing;
+    @Resource private FetchAdmission fetchAdmission;
+    @Resource private BandwidthScheduler bandwidth;
+    @Resource private FetchScheduler fetchScheduler;
+    @Resource private HedgedMinioReader hedgedMinioReader;
+    // MVC 异步线程池：stat 未命中缓存时的后续处理在这里执行，不占用请求线程，也不落在 OkHttp 回调线程上
+    @Resource(name = "downloadStreamExecutor") private AsyncTaskExecutor responseExecutor;
 
     private ExecutorService downloadPool;
-    private Cache<String, byte[]> chunkCache;           // key: object:start-end
+    private Cache<String, MemoryBlock> chunkCache;      // key: contentId#blockIndex
+    private Cache<String, AtomicInteger> blockHits;     // key: contentId#blockIndex，堆内缓存准入计数
     private Cache<Long, Files> fileMetaCache;           // key: fileId
     private Cache<String, CachedObjectStat> objectStatCache; // key: objectKey
-    private final ConcurrentMap<String, CompletableFuture<byte[]>> inFlight = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, InFlightFetch> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder admissionRejected = new LongAdder();
+    // 已在磁盘上、访问次数达到准入门槛的块在后台提升进内存，同一块同时只有一个提升任务
+    private ExecutorService promotionPool;
+    private final Set<String> promoting = ConcurrentHashMap.newKeySet();
+    private final LongAdder promotedFromDisk = new LongAdder();
+    private Cache<String, Integer> sequentialRuns;     // key: contentId|client|下一请求应落在的块，value: 连续次数
+    private Cache<String, Prefetch> prefetched;         // key: contentId#blockIndex，尚未被请求使用的预读块
+    private final AtomicLong prefetchOutstanding = new AtomicLong();
+    private final LongAdder prefetchIssued = new LongAdder();
+    private final LongAdder prefetchUsed = new LongAdder();
+    private final LongAdder prefetchCancelled = new LongAdder();
+    private final LongAdder prefetchOverBudget = new LongAdder();
+    private final LongAdder orphansCancelled = new LongAdder();
+    private final LongAdder compressedBlocks = new LongAdder();
+    private final LongAdder compressedRawBytes = new LongAdder();
+    private final LongAdder compressedStoredBytes = new LongAdder();
+    private final LongAdder orphanBytesSaved = new LongAdder();
+    // gzip 压缩副本：同一内容只有一个生成任务；压缩率不达标的内容记住一段时间，不反复尝试
+    private ExecutorService encodingPool;
+    private final ConcurrentMap<String, CompletableFuture<File>> encodingBuilds = new ConcurrentHashMap<>();
+    private Cache<String, Boolean> incompressible;
+    private final LongAdder encodingBuilt = new LongAdder();
+    private final LongAdder encodingRejected = new LongAdder();
+    private final LongAdder encodingFailed = new LongAdder();
+    private final LongAdder encodedResponses = new LongAdder();
+    private final LongAdder encodedBytesSaved = new LongAdder();
 
-    private final int POOL_SIZE = Math.max(4, Runtime.getRuntime().availableProcessors());
     // 若文件大于该阈值（bytes），streamFull 将采取流式转发而不是一次性加载到内存
     private final long STREAM_DIRECT_THRESHOLD = 64L * 1024L * 1024L; // 64 MB
+    private static final String FULL_SUFFIX = ":FULL";
+    private static final String GZIP = "gzip";
+    // 集群模式下争取租约/从持有者复制的次数与间隔
+    private static final int CLUSTER_ATTEMPTS = 3;
+    private static final long CLUSTER_RETRY_MS = 200L;
+
+    // Tomcat sendfile 约定的 request attribute（见 org.apache.catalina.Globals）
+    private static final String SENDFILE_SUPPORTED_ATTR = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+    // 标记响应将在 MVC 异步分派中提交：Tomcat 只在请求同步结束时处理 sendfile 属性，异步分派后会只发响应头不发 body
+    private static final String ASYNC_RESPONSE_ATTR = DownloadManager.class.getName() + ".asyncResponse";
 
     @PostConstruct
     public void init() {
-        downloadPool = Executors.newFixedThreadPool(POOL_SIZE, r -> {
-            Thread t = new Thread(r);
+        // 回源线程大多阻塞在 MinIO / 对端读取上，线程数取 max-cold-fetches 而不是 CPU 核数，配置的回源并发才真正生效
+        int maxColdFetches = Math.max(1, downloadConfigInfo.getAdmission().getMaxColdFetches());
+        boolean virtual = downloadConfigInfo.virtualThreadsActive();
+        if (virtual) {
+            // 每个回源任务一个虚拟线程，等待 MinIO/对端时不占用平台线程；同时执行数仍由调度容量限制
+            downloadPool = new ExecutorServiceAdapter(new VirtualThreadTaskExecutor("download-fetch-"));
+        } else {
+            if (Boolean.TRUE.equals(downloadConfigInfo.getVirtualThreads())) {
+                log.warning("download.virtual-threads requires JDK 21+, running on " + Runtime.version() + ", falling back to platform threads");
+            }
+            downloadPool = Executors.newFixedThreadPool(maxColdFetches, r -> {
+                Thread t = new Thread(r, "download-fetch");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        // 两种模式下回源线程都有 max-cold-fetches 个，MinIO 许可少于它时才由许可限制回源并发
+        if (downloadConfigInfo.getMinioConcurrency() >= maxColdFetches) {
+            log.warning("download.minio-concurrency=" + downloadConfigInfo.getMinioConcurrency()
+                    + " is not below admission.max-cold-fetches=" + maxColdFetches + ", MinIO concurrency is bounded by the fetch threads");
+        }
+        // 压缩是 CPU 密集任务，单独的小线程池，不占用回源线程
+        encodingPool = Executors.newFixedThreadPool(Math.max(1, downloadConfigInfo.getEncoding().getParallelism()), r -> {
+            Thread t = new Thread(r, "download-encode");
             t.setDaemon(true);
             return t;
         });
+        // 读块文件并压缩进内存，不占用请求线程与回源线程
+        promotionPool = Executors.newFixedThreadPool(2, r -> {
+            Thread t = new Thread(r, "download-promote");
+            t.setDaemon(true);
+            return t;
+        });
+        BufferPool.configure(downloadConfigInfo.getBufferPoolSize());
+        // 拉取按优先级通道调度后再交给线程池；调度容量等于线程数，线程池自身不排队
+        fetchScheduler.start(downloadPool, maxColdFetches);
 
+        DownloadConfigInfo.Memory memory = downloadConfigInfo.getMemory();
         chunkCache = Caffeine.newBuilder()
-                .maximumSize(10_000)
+                .maximumWeight(memory.getMaxWeight().toBytes())
+                .weigher((String k, MemoryBlock v) -> v.weight())
                 .expireAfterWrite(Duration.ofMinutes(10))
+                .recordStats()
+                .build();
+
+        blockHits = Caffeine.newBuilder()
+                .maximumSize(200_000)
+                .expireAfterWrite(memory.getAdmissionWindow())
                 .build();
 
         fileMetaCache = Caffeine.newBuilder()
@@ -76,7 +218,25 @@ public class DownloadManager {
                 .expireAfterWrite(Duration.ofHours(6))
                 .build();
 
-        log.info("DownloadManager initialized. poolSize=" + POOL_SIZE);
+        incompressible = Caffeine.newBuilder()
+                .maximumSize(20_000)
+                .expireAfterWrite(Duration.ofHours(12))
+                .build();
+
+        sequentialRuns = Caffeine.newBuilder()
+                .maximumSize(100_000)
+                .expireAfterWrite(Duration.ofMinutes(2))
+                .build();
+
+        // 过期即视为未被使用：evictionListener 与 claimPrefetch 的 remove 互斥，被认领的预读不会被取消
+        prefetched = Caffeine.newBuilder()
+                .expireAfterWrite(downloadConfigInfo.getReadAhead().getUnusedTimeout())
+                .scheduler(Scheduler.systemScheduler())
+                .evictionListener((String key, Prefetch p, RemovalCause cause) -> cancelPrefetch(key, p))
+                .build();
+
+        log.info("DownloadManager initialized. fetchThreads=" + maxColdFetches + (virtual ? " (virtual)" : "")
+                + " minioConcurrency=" + downloadConfigInfo.getMinioConcurrency() + " chunkCacheMaxWeight=" + memory.getMaxWeight());
     }
 
     // -------- 双层缓存：Files meta --------
@@ -100,374 +260,1651 @@ public class DownloadManager {
     }
 
     // -------- 双层缓存：MinIO object stat (use CachedObjectStat) --------
+    // 同步版本只给已在可阻塞线程上的调用方（响应式规划在 boundedElastic 上执行）；Servlet 下载入口走 withStat
     private CachedObjectStat getObjectStat(String objectKey) throws Exception {
+        try {
+            return getObjectStatAsync(objectKey).get();
+        } catch (ExecutionException e) {
+            Throwable cause = MinioUtil.unwrap(e);
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+
+    // 缓存未命中时异步 stat，MinIO 往返期间不占用调用线程
+    private CompletableFuture<CachedObjectStat> getObjectStatAsync(String objectKey) {
         CachedObjectStat cached = objectStatCache.getIfPresent(objectKey);
-        if (cached != null) return cached;
+        if (cached != null) return CompletableFuture.completedFuture(cached);
 
         Object redisObj = redisUtil.get("stat:" + objectKey);
         if (redisObj instanceof CachedObjectStat) {
             CachedObjectStat r = (CachedObjectStat) redisObj;
             objectStatCache.put(objectKey, r);
-            return r;
+            return CompletableFuture.completedFuture(r);
         }
 
-        // fetch from MinIO
-        StatObjectResponse stat = minioUtil.statObject(objectKey);
-        if (stat == null) throw new IOException("statObject returned null for " + objectKey);
+        // fetch from MinIO：回调落在 OkHttp 线程上，写 Redis 与后续处理转到 MVC 异步线程池
+        return minioUtil.statObjectAsync(objectKey).thenApplyAsync(stat -> {
+            if (stat == null) throw new CompletionException(new IOException("statObject returned null for " + objectKey));
+
+            CachedObjectStat cs = new CachedObjectStat(
+                    objectKey,
+                    stat.size(),
+                    stat.etag(),
+                    stat.lastModified().toString()
+            );
+            // save to redis + local cache
+            redisUtil.set("stat:" + objectKey, cs, 6, TimeUnit.HOURS);
+            objectStatCache.put(objectKey, cs);
+            return cs;
+        }, responseExecutor);
+    }
 
-        CachedObjectStat cs = new CachedObjectStat(
-                objectKey,
-                stat.size(),
-                stat.etag(),
-                stat.lastModified().toString()
-        );
-        // save to redis + local cache
-        redisUtil.set("stat:" + objectKey, cs, 6, TimeUnit.HOURS);
-        objectStatCache.put(objectKey, cs);
-        return cs;
+    // stat 已在缓存中（绝大多数请求）时在调用线程上同步处理，返回已完成的 future，响应仍在请求线程上提交、磁盘命中可走 sendfile；
+    // 需要向 MinIO stat 时不占用请求线程，结果在 MVC 异步线程上处理，该请求的磁盘文件改走 transferTo（Tomcat 在异步分派中不处理 sendfile）
+    private <T> CompletableFuture<ResponseEntity<T>> withStat(String object, HttpServletRequest request,
+                                                              Function<CachedObjectStat, ResponseEntity<T>> handler) {
+        CompletableFuture<CachedObjectStat> stat;
+        try {
+            stat = getObjectStatAsync(object);
+        } catch (RuntimeException e) {
+            stat = CompletableFuture.failedFuture(e);
+        }
+        BiFunction<CachedObjectStat, Throwable, ResponseEntity<T>> respond = (s, t) -> {
+            if (t == null) return handler.apply(s);
+            Throwable cause = MinioUtil.unwrap(t);
+            log.log(Level.WARNING, "statObject failed: " + cause.getMessage(), cause);
+            return ResponseEntity.internalServerError().build();
+        };
+        if (stat.isDone()) return stat.handle(respond);
+        request.setAttribute(ASYNC_RESPONSE_ATTR, Boolean.TRUE);
+        return stat.handleAsync(respond, responseExecutor);
     }
 
-    // -------- streamRange（分片下载，返回 206） --------
-    public ResponseEntity<byte[]> streamRange(Long fileId, long start, long end, HttpServletResponse response) throws IOException {
+    // -------- streamRange（分片下载，返回 206；多个区间返回 multipart/byteranges） --------
+    public CompletableFuture<ResponseEntity<StreamingResponseBody>> streamRange(Long fileId, List<HttpRange> ranges,
+                                                                               HttpServletRequest request) {
         Files file = getFileMeta(fileId);
-        if (file == null) return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        if (file == null) return CompletableFuture.completedFuture(ResponseEntity.notFound().build());
+        return withStat(file.getObject(), request, stat -> serveRange(request, file, stat, ranges));
+    }
 
+    private ResponseEntity<StreamingResponseBody> serveRange(HttpServletRequest request, Files file, CachedObjectStat stat,
+                                                             List<HttpRange> ranges) {
         String object = file.getObject();
+        ResponseEntity<StreamingResponseBody> notModified = checkPreconditions(request, stat);
+        if (notModified != null) return notModified;
+        // If-Range 为 gzip 表示的 ETag：客户端在续传压缩副本，区间按压缩后的字节计算
+        ResponseEntity<StreamingResponseBody> encodedRange = serveEncodedRange(request, file, stat, ranges);
+        if (encodedRange != null) return encodedRange;
+        // If-Range 不匹配：客户端持有的版本已过期，忽略 Range 返回整文件
+        if (!ifRangeMatches(requestHeaders(request), stat)) return serveFull(request, file, stat);
+
+        long total = stat.getSize();
+        List<long[]> satisfiable = satisfiableRanges(ranges, total);
+        if (satisfiable.isEmpty()) {
+            return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                    .header(HttpHeaders.CONTENT_RANGE, "bytes */" + total).build();
+        }
+        if (satisfiable.size() == 1) {
+            long start = satisfiable.get(0)[0];
+            long end = satisfiable.get(0)[1];
+            Content content = new Content(object, stat);
+            ResponseEntity<StreamingResponseBody> response = serveBlocks(request, content, start, end, HttpStatus.PARTIAL_CONTENT,
+                    varyOnEncoding(rangeHeaders(file.getOriginFileName(), start, end, total, stat), file, total));
+            readAhead(clientId(request), content, start, end);
+            return response;
+        }
+        // 区间过多或大量重叠（总字节超过文件本身）：按 RFC 7233 忽略 Range，直接返回整文件
+        if (ignoreRanges(satisfiable, total)) return serveFull(request, file, stat);
+        return serveMultipart(request, new Content(object, stat), satisfiable,
+                varyOnEncoding(commonHeaders(file.getOriginFileName(), stat), file, total));
+    }
+
+    // 去掉不可满足的区间（起点超出文件长度），其余按文件长度截断
+    static List<long[]> satisfiableRanges(List<HttpRange> ranges, long total) {
+        List<long[]> satisfiable = new ArrayList<>(ranges.size());
+        for (HttpRange range : ranges) {
+            try {
+                long start = range.getRangeStart(total);
+                long end = range.getRangeEnd(total);
+                if (start > end) continue;
+                satisfiable.add(new long[]{start, end});
+            } catch (IllegalArgumentException ignored) {
+                // 起点超出文件长度，该区间不可满足
+            }
+        }
+        return satisfiable;
+    }
+
+    private boolean ignoreRanges(List<long[]> satisfiable, long total) {
+        long requested = 0;
+        for (long[] range : satisfiable) requested += range[1] - range[0] + 1;
+        return satisfiable.size() > downloadConfigInfo.getMaxRanges() || requested > total;
+    }
+
+    // -------- streamFull（整文件下载，返回 200） --------
+    public CompletableFuture<ResponseEntity<StreamingResponseBody>> streamFull(Long fileId, HttpServletRequest request) {
+        Files file = getFileMeta(fileId);
+        if (file == null) return CompletableFuture.completedFuture(ResponseEntity.notFound().build());
+
+        return withStat(file.getObject(), request, stat -> {
+            ResponseEntity<StreamingResponseBody> notModified = checkPreconditions(request, stat);
+            if (notModified != null) return notModified;
+            return serveFull(request, file, stat);
+        });
+    }
+
+    // -------- head（只读元数据缓存，不触碰块缓存与 MinIO 数据） --------
+    public CompletableFuture<ResponseEntity<Void>> head(Long fileId, HttpServletRequest request) {
+        Files file = getFileMeta(fileId);
+        if (file == null) return CompletableFuture.completedFuture(ResponseEntity.notFound().build());
+
+        return withStat(file.getObject(), request, stat -> {
+            ResponseEntity<Void> notModified = checkPreconditions(request, stat);
+            if (notModified != null) return notModified;
+            return ResponseEntity.ok().headers(varyOnEncoding(fullHeaders(file.getOriginFileName(), stat.getSize(), stat), file, stat.getSize())).build();
+        });
+    }
+
+    // -------- streamEncoded（旧分片下载接口不带 Range 的请求：gzip 副本就绪时接管，否则结果为 null 由原流程处理） --------
+    public CompletableFuture<ResponseEntity<StreamingResponseBody>> streamEncoded(Long fileId, HttpServletRequest request) {
+        if (!acceptsGzip(request.getHeader(HttpHeaders.ACCEPT_ENCODING))) return CompletableFuture.completedFuture(null);
+        Files file = getFileMeta(fileId);
+        if (file == null) return CompletableFuture.completedFuture(null);
+
+        // 旧分片下载接口总以 future 返回，响应在异步分派中提交，不能走 sendfile
+        request.setAttribute(ASYNC_RESPONSE_ATTR, Boolean.TRUE);
+        return withStat(file.getObject(), request, stat -> serveEncoded(request, file, new Content(file.getObject(), stat), stat))
+                .thenApply(response -> response != null && response.getStatusCode().is5xxServerError() ? null : response);
+    }
+
+    private ResponseEntity<StreamingResponseBody> serveFull(HttpServletRequest request, Files file, CachedObjectStat stat) {
+        Content content = new Content(file.getObject(), stat);
+        long total = content.size;
+        ResponseEntity<StreamingResponseBody> encoded = serveEncoded(request, file, content, stat);
+        if (encoded != null) return encoded;
+        HttpHeaders headers = varyOnEncoding(fullHeaders(file.getOriginFileName(), total, stat), file, total);
+
+        // 1) 小文件按块拼装，与分片下载共享同一份块缓存
+        if (total <= STREAM_DIRECT_THRESHOLD) {
+            if (total == 0) return ResponseEntity.ok().headers(headers).build();
+            return serveBlocks(request, content, 0, total - 1, HttpStatus.OK, headers);
+        }
+
+        // 2) try disk cache for full
+        File fullFile = diskFullFile(content);
+        if (fullFile.exists() && fullFile.length() == total) {
+            log.info("full disk cache HIT " + fullFile.getAbsolutePath());
+            diskChunkStore.touch(fullFile);
+            return sendDiskFile(request, HttpStatus.OK, headers, fullFile, 0, total, true);
+        }
+
+        // 3) in-flight dedupe for full：MinIO 边拉取边落盘，请求方同时从 tmp 文件跟读
+        String fullKey = content.id + FULL_SUFFIX;
+        if (!fetchAdmission.tryAdmit(inFlight.containsKey(fullKey) ? 0 : 1)) return tooBusy();
+        InFlightFetch fetch = startFetch(fullKey, content, 0, total, fullFile, null, FetchScheduler.Lane.BULK);
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(15);
+        ResponseEntity<StreamingResponseBody> failed = awaitFirstByte(fetch, 0, deadline);
+        if (failed != null) {
+            release(fetch);
+            return failed;
+        }
+
+        return ResponseEntity.ok().headers(headers).body(throttled(request, out -> {
+            try {
+                fetch.streamTo(out, 0, total, deadline);
+            } catch (TimeoutException | IOException e) {
+                throwUnlessClientAbort("fetch full", e);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while streaming " + fullKey);
+            } finally {
+                release(fetch);
+            }
+        }));
+    }
+
+    // -------- 响应式下载（ReactiveDownloadHandler）：协商与缓存层次同 streamRange/streamFull，只规划响应体由哪些片段组成 --------
+    // 会查询 Redis / 数据库，调用方不应在事件循环线程上调用；返回的规划写出结束后须 release
+    public DownloadPlan plan(Long fileId, HttpHeaders request, String remoteAddr, boolean head) {
+        Files file = getFileMeta(fileId);
+        if (file == null) return DownloadPlan.of(ResponseEntity.notFound().build());
+
         CachedObjectStat stat;
         try {
-            stat = getObjectStat(object);
+            stat = getObjectStat(file.getObject());
         } catch (Exception e) {
             log.log(Level.WARNING, "statObject failed: " + e.getMessage(), e);
-            return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+            return DownloadPlan.of(ResponseEntity.internalServerError().build());
         }
 
+        ResponseEntity<Void> notModified = checkPreconditions(request, stat);
+        if (notModified != null) return DownloadPlan.of(notModified);
         long total = stat.getSize();
-        if (start < 0) start = 0;
-        if (end >= total) end = total - 1;
-        if (start > end) return new ResponseEntity<>(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
-
-        String chunkKey = object + ":" + start + "-" + end;
+        if (head) {
+            return DownloadPlan.of(ResponseEntity.ok()
+                    .headers(varyOnEncoding(fullHeaders(file.getOriginFileName(), total, stat), file, total)).build());
+        }
 
-        // 1) 本地内存缓存
-        byte[] cached = chunkCache.getIfPresent(chunkKey);
-        if (cached != null) {
-            log.info("chunkCache HIT " + chunkKey);
-            writeRangeHeaders(response, file.getOriginFileName(), start, end, total, stat);
+        List<HttpRange> ranges = Collections.emptyList();
+        String range = request.getFirst(HttpHeaders.RANGE);
+        if (range != null) {
             try {
-                response.getOutputStream().write(cached);
-                response.flushBuffer();
-            } catch (IOException ioe) {
-                log.log(Level.WARNING, "client write aborted: " + ioe.getMessage());
-                return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+                ranges = HttpRange.parseRanges(range);
+            } catch (IllegalArgumentException ignored) {
+                // Range 格式非法时忽略，按无 Range 处理
             }
-            return new ResponseEntity<>(cached, HttpStatus.PARTIAL_CONTENT);
         }
+        if (ranges.isEmpty()) return planFull(request, file, stat);
 
-        // 2) 磁盘缓存
-        File diskPart = diskPartFile(object, start, end);
-        if (diskPart.exists() && diskPart.length() == (end - start + 1)) {
-            log.info("disk cache HIT " + diskPart.getAbsolutePath());
-            byte[] buf = readAllBytes(diskPart);
-            chunkCache.put(chunkKey, buf);
-            writeRangeHeaders(response, file.getOriginFileName(), start, end, total, stat);
-            response.getOutputStream().write(buf);
-            response.flushBuffer();
-            return new ResponseEntity<>(buf, HttpStatus.PARTIAL_CONTENT);
+        File gz = encodedRangeFile(request, file, stat);
+        if (gz != null) return planEncodedRange(file, stat, gz, ranges);
+        if (!ifRangeMatches(request, stat)) return planFull(request, file, stat);
+
+        List<long[]> satisfiable = satisfiableRanges(ranges, total);
+        if (satisfiable.isEmpty()) {
+            return DownloadPlan.of(ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                    .header(HttpHeaders.CONTENT_RANGE, "bytes */" + total).build());
+        }
+        Content content = new Content(file.getObject(), stat);
+        if (satisfiable.size() == 1) {
+            long start = satisfiable.get(0)[0];
+            long end = satisfiable.get(0)[1];
+            DownloadPlan plan = planBlocks(content, satisfiable, null, HttpStatus.PARTIAL_CONTENT,
+                    varyOnEncoding(rangeHeaders(file.getOriginFileName(), start, end, total, stat), file, total));
+            readAhead(clientId(request.getFirst("X-Forwarded-For"), remoteAddr), content, start, end);
+            return plan;
+        }
+        if (ignoreRanges(satisfiable, total)) return planFull(request, file, stat);
+        HttpHeaders headers = varyOnEncoding(commonHeaders(file.getOriginFileName(), stat), file, total);
+        return planBlocks(content, satisfiable, multipartDelimiters(content.size, satisfiable, headers),
+                HttpStatus.PARTIAL_CONTENT, headers);
+    }
+
+    private DownloadPlan planFull(HttpHeaders request, Files file, CachedObjectStat stat) {
+        Content content = new Content(file.getObject(), stat);
+        long total = content.size;
+        File gz = encodedFile(request.getFirst(HttpHeaders.ACCEPT_ENCODING), file, content);
+        if (gz != null) {
+            long length = gz.length();
+            return new DownloadPlan(HttpStatus.OK, encodedHeaders(fullHeaders(file.getOriginFileName(), length, stat), stat),
+                    List.of(fileSlice(gz, 0, length)), Collections.emptyList());
+        }
+        HttpHeaders headers = varyOnEncoding(fullHeaders(file.getOriginFileName(), total, stat), file, total);
+
+        if (total <= STREAM_DIRECT_THRESHOLD) {
+            if (total == 0) return DownloadPlan.of(ResponseEntity.ok().headers(headers).build());
+            return planBlocks(content, Collections.singletonList(new long[]{0, total - 1}), null, HttpStatus.OK, headers);
         }
 
-        // 3) in-flight dedupe + fetch
-        long finalStart = start, finalEnd = end;
-        CompletableFuture<byte[]> future = inFlight.computeIfAbsent(chunkKey, k -> {
-            CompletableFuture<byte[]> cf = new CompletableFuture<>();
-            downloadPool.submit(() -> {
+        File fullFile = diskFullFile(content);
+        if (fullFile.exists() && fullFile.length() == total) {
+            diskChunkStore.touch(fullFile);
+            return new DownloadPlan(HttpStatus.OK, headers, List.of(fileSlice(fullFile, 0, total)),
+                    Collections.emptyList());
+        }
+
+        String fullKey = content.id + FULL_SUFFIX;
+        if (!fetchAdmission.tryAdmit(inFlight.containsKey(fullKey) ? 0 : 1)) return DownloadPlan.of(tooBusy());
+        InFlightFetch fetch = startFetch(fullKey, content, 0, total, fullFile, null, FetchScheduler.Lane.BULK);
+        return new DownloadPlan(HttpStatus.OK, headers, List.of(DownloadPlan.Slice.fetch(fetch, 0, total)), List.of(fetch));
+    }
+
+    // 与 serveEncodedRange 相同：单个区间按压缩后的字节计算，多个区间返回整个副本
+    private DownloadPlan planEncodedRange(Files file, CachedObjectStat stat, File gz, List<HttpRange> ranges) {
+        long total = gz.length();
+        if (ranges.size() != 1) {
+            return new DownloadPlan(HttpStatus.OK, encodedHeaders(fullHeaders(file.getOriginFileName(), total, stat), stat),
+                    List.of(fileSlice(gz, 0, total)), Collections.emptyList());
+        }
+        List<long[]> satisfiable = satisfiableRanges(ranges, total);
+        if (satisfiable.isEmpty()) {
+            return DownloadPlan.of(ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                    .header(HttpHeaders.CONTENT_RANGE, "bytes */" + total).build());
+        }
+        long start = satisfiable.get(0)[0];
+        long end = satisfiable.get(0)[1];
+        encodedResponses.increment();
+        return new DownloadPlan(HttpStatus.PARTIAL_CONTENT,
+                encodedHeaders(rangeHeaders(file.getOriginFileName(), start, end, total, stat), stat),
+                List.of(fileSlice(gz, start, end - start + 1)), Collections.emptyList());
+    }
+
+    // 区间逐块映射到来源：拉取中 / 堆内 / 堆外（复制出本次需要的部分）/ 磁盘；delimiters 非空时为 multipart 的分段头与结束边界
+    private DownloadPlan planBlocks(Content content, List<long[]> ranges, List<byte[]> delimiters,
+                                    HttpStatus status, HttpHeaders headers) {
+        if (!fetchAdmission.tryAdmit(coldBlocks(content, ranges))) return DownloadPlan.of(tooBusy());
+        Map<Long, InFlightFetch> pending = prepareBlocks(content, ranges);
+        List<InFlightFetch> retained = new ArrayList<>(pending.values());
+        List<DownloadPlan.Slice> body = new ArrayList<>();
+        long blockSize = blockSize();
+        for (int i = 0; i < ranges.size(); i++) {
+            if (delimiters != null) body.add(bytesSlice(delimiters.get(i)));
+            long start = ranges.get(i)[0];
+            long end = ranges.get(i)[1];
+            for (long idx = start / blockSize; idx <= end / blockSize; idx++) {
+                long blockStart = idx * blockSize;
+                long from = Math.max(start, blockStart);
+                long to = Math.min(end, blockStart + blockLength(idx, content.size) - 1);
+                body.add(planBlockSlice(content, idx, from - blockStart, to - from + 1, pending.get(idx), retained));
+            }
+        }
+        if (delimiters != null) body.add(bytesSlice(delimiters.get(ranges.size())));
+        return new DownloadPlan(status, headers, body, retained);
+    }
+
+    private DownloadPlan.Slice planBlockSlice(Content content, long idx, long offset, long length,
+                                              InFlightFetch pending, List<InFlightFetch> retained) {
+        if (pending != null) return DownloadPlan.Slice.fetch(pending, offset, length);
+        String key = blockKey(content, idx);
+        MemoryBlock block = chunkCache.getIfPresent(key);
+        if (block != null) return DownloadPlan.Slice.memory(block, offset, length);
+        // 持有租约直到 release(plan)：写出时直接发布堆外数据，不复制进堆
+        OffHeapChunkStore.Lease lease = offHeapChunkStore.acquire(key);
+        if (lease != null) return DownloadPlan.Slice.offHeap(lease, offset, length);
+        if (diskBlockReady(content, idx)) {
+            File blockFile = diskBlockFile(content, idx);
+            diskChunkStore.touch(blockFile);
+            return fileSlice(blockFile, offset, length);
+        }
+        // 判断之后被淘汰：重新拉取
+        InFlightFetch refetch = fetchBlock(content, idx, FetchScheduler.Lane.INTERACTIVE);
+        retained.add(refetch);
+        return DownloadPlan.Slice.fetch(refetch, offset, length);
+    }
+
+    // 磁盘片段在写出结束前钉住，release(plan) 时释放
+    private DownloadPlan.Slice fileSlice(File file, long offset, long length) {
+        diskChunkStore.pin(file);
+        return DownloadPlan.Slice.file(file, offset, length);
+    }
+
+    private static DownloadPlan.Slice bytesSlice(byte[] bytes) {
+        return DownloadPlan.Slice.memory(MemoryBlock.raw(bytes), 0, bytes.length);
+    }
+
+    public void release(DownloadPlan plan) {
+        for (InFlightFetch fetch : plan.retained) release(fetch);
+        for (DownloadPlan.Slice slice : plan.getBody()) {
+            if (slice.getFile() != null) diskChunkStore.unpin(slice.getFile());
+            if (slice.getOffHeap() != null) slice.getOffHeap().close();
+        }
+    }
+
+    // -------- 条件请求（RFC 7232）：只依据 ETag / Last-Modified 判断，命中时返回 304/412，不产生响应体 --------
+    private static <T> ResponseEntity<T> checkPreconditions(HttpServletRequest request, CachedObjectStat stat) {
+        return checkPreconditions(requestHeaders(request), stat);
+    }
+
+    private static <T> ResponseEntity<T> checkPreconditions(HttpHeaders request, CachedObjectStat stat) {
+        String etag = quotedEtag(stat);
+        long lastModified = lastModifiedMillis(stat);
+
+        String ifMatch = request.getFirst(HttpHeaders.IF_MATCH);
+        if (ifMatch != null) {
+            if (!etagMatches(ifMatch, etag, false) && !etagMatches(ifMatch, gzipEtag(stat), false)) {
+                return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).build();
+            }
+        } else {
+            long ifUnmodifiedSince = dateHeader(request, HttpHeaders.IF_UNMODIFIED_SINCE);
+            if (ifUnmodifiedSince >= 0 && lastModified >= 0 && lastModified / 1000 > ifUnmodifiedSince / 1000) {
+                return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).build();
+            }
+        }
+
+        String ifNoneMatch = request.getFirst(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            if (etagMatches(ifNoneMatch, etag, true)) return notModified(etag, lastModified);
+            // 客户端缓存的是 gzip 表示
+            if (etagMatches(ifNoneMatch, gzipEtag(stat), true)) return notModified(gzipEtag(stat), lastModified);
+        } else {
+            long ifModifiedSince = dateHeader(request, HttpHeaders.IF_MODIFIED_SINCE);
+            if (ifModifiedSince >= 0 && lastModified >= 0 && lastModified / 1000 <= ifModifiedSince / 1000) {
+                return notModified(etag, lastModified);
+            }
+        }
+        return null;
+    }
+
+    // If-Range 可以是 ETag（强比较）或 HTTP-date（须与 Last-Modified 完全一致）
+    private static boolean ifRangeMatches(HttpHeaders request, CachedObjectStat stat) {
+        String ifRange = request.getFirst(HttpHeaders.IF_RANGE);
+        if (ifRange == null) return true;
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return etagMatches(ifRange, quotedEtag(stat), false);
+        }
+        long date = dateHeader(request, HttpHeaders.IF_RANGE);
+        long lastModified = lastModifiedMillis(stat);
+        return date >= 0 && lastModified >= 0 && date / 1000 == lastModified / 1000;
+    }
+
+    private static <T> ResponseEntity<T> notModified(String etag, long lastModified) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.ETAG, etag);
+        if (lastModified >= 0) headers.setLastModified(lastModified);
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED).headers(headers).build();
+    }
+
+    // weak = true 时按弱比较（忽略 W/ 前缀），否则弱 ETag 一律不匹配
+    private static boolean etagMatches(String header, String etag, boolean weak) {
+        for (String candidate : header.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.equals("*")) return true;
+            if (candidate.startsWith("W/")) {
+                if (!weak) continue;
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals(etag)) return true;
+        }
+        return false;
+    }
+
+    private static long dateHeader(HttpHeaders request, String name) {
+        try {
+            return request.getFirstDate(name);
+        } catch (IllegalArgumentException e) {
+            // 无法解析的日期按未携带处理
+            return -1;
+        }
+    }
+
+    // CachedObjectStat 中保存的是 ZonedDateTime.toString()，解析失败返回 -1
+    private static long lastModifiedMillis(CachedObjectStat stat) {
+        if (stat.getLastModified() == null) return -1;
+        try {
+            return ZonedDateTime.parse(stat.getLastModified()).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    // Servlet 请求头转为 HttpHeaders，与响应式下载共用同一套条件请求与协商逻辑
+    private static HttpHeaders requestHeaders(HttpServletRequest request) {
+        return new ServletServerHttpRequest(request).getHeaders();
+    }
+
+    private static String quotedEtag(CachedObjectStat stat) {
+        return "\"".concat(stat.getEtag()).concat("\"");
+    }
+
+    // gzip 表示与原样表示的字节不同，须使用不同的强 ETag
+    private static String gzipEtag(CachedObjectStat stat) {
+        return "\"".concat(stat.getEtag()).concat("-gzip\"");
+    }
+
+    // -------- 内容编码：可压缩类型的整文件按 gzip 发送，压缩副本（<contentId>/full.gz）与原文件一起缓存在磁盘 --------
+    // 副本就绪前原样发送并在后台生成，之后的请求直接发送副本：Content-Length 准确，仍可走 sendfile
+    private ResponseEntity<StreamingResponseBody> serveEncoded(HttpServletRequest request, Files file, Content content,
+                                                               CachedObjectStat stat) {
+        File gz = encodedFile(request.getHeader(HttpHeaders.ACCEPT_ENCODING), file, content);
+        if (gz == null) return null;
+        long length = gz.length();
+        return sendDiskFile(request, HttpStatus.OK, encodedHeaders(fullHeaders(file.getOriginFileName(), length, stat), stat),
+                gz, 0, length, true);
+    }
+
+    // 续传 gzip 表示：只接受单个区间，多区间按整文件返回；副本已被淘汰时返回 null，由 If-Range 不匹配的流程返回整文件
+    private ResponseEntity<StreamingResponseBody> serveEncodedRange(HttpServletRequest request, Files file, CachedObjectStat stat,
+                                                                    List<HttpRange> ranges) {
+        File gz = encodedRangeFile(requestHeaders(request), file, stat);
+        if (gz == null) return null;
+        long total = gz.length();
+        if (ranges.size() != 1) {
+            return sendDiskFile(request, HttpStatus.OK, encodedHeaders(fullHeaders(file.getOriginFileName(), total, stat), stat),
+                    gz, 0, total, true);
+        }
+        long start;
+        long end;
+        try {
+            start = ranges.get(0).getRangeStart(total);
+            end = ranges.get(0).getRangeEnd(total);
+        } catch (IllegalArgumentException e) {
+            start = total;
+            end = -1;
+        }
+        if (start > end) {
+            return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                    .header(HttpHeaders.CONTENT_RANGE, "bytes */" + total).build();
+        }
+        encodedResponses.increment();
+        return sendDiskFile(request, HttpStatus.PARTIAL_CONTENT,
+                encodedHeaders(rangeHeaders(file.getOriginFileName(), start, end, total, stat), stat),
+                gz, start, end - start + 1, true);
+    }
+
+    // 客户端接受 gzip 且副本已就绪时返回副本并计入编码响应，否则返回 null（可能已提交后台生成）
+    private File encodedFile(String acceptEncoding, Files file, Content content) {
+        if (!acceptsGzip(acceptEncoding) || !encodable(file, content.size)) return null;
+        File gz = gzipVariant(content);
+        if (gz == null) return null;
+        encodedResponses.increment();
+        encodedBytesSaved.add(content.size - gz.length());
+        return gz;
+    }
+
+    // If-Range 为 gzip 表示的 ETag 且副本仍在时返回副本
+    private File encodedRangeFile(HttpHeaders request, Files file, CachedObjectStat stat) {
+        String ifRange = request.getFirst(HttpHeaders.IF_RANGE);
+        if (ifRange == null || !etagMatches(ifRange.trim(), gzipEtag(stat), false)) return null;
+        Content content = new Content(file.getObject(), stat);
+        if (!acceptsGzip(request.getFirst(HttpHeaders.ACCEPT_ENCODING)) || !encodable(file, content.size)) return null;
+        return gzipVariant(content);
+    }
+
+    private HttpHeaders encodedHeaders(HttpHeaders headers, CachedObjectStat stat) {
+        headers.set(HttpHeaders.CONTENT_ENCODING, GZIP);
+        headers.set(HttpHeaders.ETAG, gzipEtag(stat));
+        headers.setVary(List.of(HttpHeaders.ACCEPT_ENCODING));
+        return headers;
+    }
+
+    // 可协商编码的文件，响应随 Accept-Encoding 变化，中间缓存须按编码分别缓存
+    private HttpHeaders varyOnEncoding(HttpHeaders headers, Files file, long size) {
+        if (encodable(file, size)) headers.setVary(List.of(HttpHeaders.ACCEPT_ENCODING));
+        return headers;
+    }
+
+    private boolean encodable(Files file, long size) {
+        DownloadConfigInfo.Encoding cfg = downloadConfigInfo.getEncoding();
+        if (!Boolean.TRUE.equals(cfg.getEnabled())) return false;
+        if (size < cfg.getMinSize().toBytes() || size > cfg.getMaxSize().toBytes()) return false;
+        String name = file.getOriginFileName();
+        int dot = name == null ? -1 : name.lastIndexOf('.');
+        if (dot < 0) return false;
+        String ext = name.substring(dot + 1).toLowerCase(Locale.ROOT);
+        for (String type : cfg.getTypes()) {
+            if (type.equalsIgnoreCase(ext)) return true;
+        }
+        return false;
+    }
+
+    // Accept-Encoding 中 gzip（未列出时看 *）的 q 值大于 0 才选择 gzip
+    private static boolean acceptsGzip(String header) {
+        if (header == null) return false;
+        double gzip = -1;
+        double any = -1;
+        for (String part : header.split(",")) {
+            String[] tokens = part.trim().split(";");
+            String coding = tokens[0].trim().toLowerCase(Locale.ROOT);
+            double q = 1.0;
+            for (int i = 1; i < tokens.length; i++) {
+                String param = tokens[i].trim().toLowerCase(Locale.ROOT);
+                if (!param.startsWith("q=")) continue;
+                try {
+                    q = Double.parseDouble(param.substring(2));
+                } catch (NumberFormatException e) {
+                    q = 0;
+                }
+            }
+            if (coding.equals(GZIP) || coding.equals("x-gzip")) gzip = q;
+            else if (coding.equals("*")) any = q;
+        }
+        return (gzip >= 0 ? gzip : any) > 0;
+    }
+
+    // 副本已在磁盘上则返回；否则（同一内容只一次）提交后台生成并返回 null
+    private File gzipVariant(Content content) {
+        if (incompressible.getIfPresent(content.id) != null) return null;
+        File gz = diskGzipFile(content);
+        if (gz.exists()) {
+            diskChunkStore.touch(gz);
+            return gz;
+        }
+        CompletableFuture<File> build = new CompletableFuture<>();
+        if (encodingBuilds.putIfAbsent(content.id, build) == null) {
+            encodingPool.execute(() -> {
                 try {
-                    byte[] data = fetchAndCacheChunk(object, finalStart, finalEnd, diskPart);
-                    cf.complete(data);
-                } catch (Throwable t) {
-                    cf.completeExceptionally(t);
+                    build.complete(buildGzipVariant(content));
+                } catch (Exception e) {
+                    encodingFailed.increment();
+                    log.log(Level.WARNING, "build gzip variant failed. object=" + content.object + ": " + e.getMessage());
+                    build.completeExceptionally(e);
                 } finally {
-                    inFlight.remove(chunkKey);
+                    encodingBuilds.remove(content.id, build);
                 }
             });
-            return cf;
-        });
+        }
+        return null;
+    }
 
+    // 从各级缓存读原样内容写 gzip 到 tmp，完成后原子 rename；压缩率不达标的丢弃
+    private File buildGzipVariant(Content content) throws IOException, InterruptedException, TimeoutException {
+        File target = diskGzipFile(content);
+        if (target.exists()) return target;
+        if (!target.getParentFile().exists()) target.getParentFile().mkdirs();
+        DownloadConfigInfo.Encoding cfg = downloadConfigInfo.getEncoding();
+        File tmp = new File(target.getAbsolutePath() + ".tmp");
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(30);
+        try (OutputStream out = gzip(new FileOutputStream(tmp), cfg.getLevel())) {
+            writeIdentity(out, content, deadline);
+        } catch (IOException | InterruptedException | TimeoutException | RuntimeException e) {
+            tmp.delete();
+            throw e;
+        }
+
+        long compressed = tmp.length();
+        if (compressed > content.size * cfg.getMinRatio()) {
+            tmp.delete();
+            incompressible.put(content.id, Boolean.TRUE);
+            encodingRejected.increment();
+            log.info("gzip variant discarded, ratio too low. object=" + content.object + " size=" + content.size + " gzip=" + compressed);
+            return null;
+        }
         try {
-            byte[] data = future.get(6, TimeUnit.MINUTES);
-            writeRangeHeaders(response, file.getOriginFileName(), start, end, total, stat);
-            response.getOutputStream().write(data);
-            response.flushBuffer();
-            return new ResponseEntity<>(data, HttpStatus.PARTIAL_CONTENT);
-        } catch (TimeoutException te) {
-            log.log(Level.WARNING, "fetch chunk timeout: " + te.getMessage(), te);
-            return new ResponseEntity<>(HttpStatus.GATEWAY_TIMEOUT);
-        } catch (ExecutionException ee) {
-            log.log(Level.WARNING, "fetch chunk failed: " + ee.getMessage(), ee);
-            return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
-        } catch (InterruptedException ie) {
-            Thread.currentThread().interrupt();
-            return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+            java.nio.file.Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            java.nio.file.Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
         }
+        diskChunkStore.record(target);
+        encodingBuilt.increment();
+        log.info("gzip variant ready. object=" + content.object + " size=" + content.size + " gzip=" + compressed);
+        return target;
     }
 
-    // -------- streamFull（整文件下载，返回 200） --------
-    public ResponseEntity<byte[]> streamFull(Long fileId, HttpServletResponse response) throws IOException {
+    // 写出完整的原样内容：小文件按块拼装（缺失的块重新拉取），大文件读整文件缓存或跟读整文件拉取
+    private void writeIdentity(OutputStream out, Content content, long deadline)
+            throws IOException, InterruptedException, TimeoutException {
+        if (content.size <= STREAM_DIRECT_THRESHOLD) {
+            writeRange(out, content, 0, content.size - 1, Collections.emptyMap(), deadline);
+            return;
+        }
+        File fullFile = diskFullFile(content);
+        if (fullFile.exists() && fullFile.length() == content.size) {
+            copyFileRange(fullFile, 0, content.size, out);
+            return;
+        }
+        InFlightFetch fetch = startFetch(content.id + FULL_SUFFIX, content, 0, content.size, fullFile, null,
+                FetchScheduler.Lane.BULK);
+        try {
+            fetch.streamTo(out, 0, content.size, deadline);
+        } finally {
+            release(fetch);
+        }
+    }
+
+    private static GZIPOutputStream gzip(OutputStream out, int level) throws IOException {
+        return new GZIPOutputStream(out, BufferPool.BUFFER_SIZE) {
+            {
+                def.setLevel(level);
+            }
+        };
+    }
+
+    public Map<String, Object> encodingStats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("enabled", Boolean.TRUE.equals(downloadConfigInfo.getEncoding().getEnabled()));
+        m.put("building", encodingBuilds.size());
+        m.put("variantsBuilt", encodingBuilt.sum());
+        m.put("variantsRejected", encodingRejected.sum());
+        m.put("buildFailures", encodingFailed.sum());
+        m.put("encodedResponses", encodedResponses.sum());
+        m.put("encodedBytesSaved", encodedBytesSaved.sum());
+        return m;
+    }
+
+    // -------- 预热：把文件所有块拉进磁盘缓存，文件头部的块同时进入内存，返回全部落盘后完成的 future --------
+    public CompletableFuture<Void> prewarm(Long fileId) {
         Files file = getFileMeta(fileId);
-        if (file == null) return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        if (file == null) return CompletableFuture.failedFuture(new FileNotFoundException("file " + fileId));
+        return getObjectStatAsync(file.getObject())
+                .thenCompose(stat -> prewarm(new Content(file.getObject(), stat)));
+    }
 
-        String object = file.getObject();
-        CachedObjectStat stat;
-        try {
-            stat = getObjectStat(object);
-        } catch (Exception e) {
-            log.log(Level.WARNING, "statObject failed: " + e.getMessage(), e);
-            return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+    private CompletableFuture<Void> prewarm(Content content) {
+        DownloadConfigInfo.Prewarm cfg = downloadConfigInfo.getPrewarm();
+        long blockSize = blockSize();
+        long blocks = (content.size + blockSize - 1) / blockSize;
+        long memoryBlocks = cfg.getMaxMemory().toBytes() / blockSize;
+        int minHits = downloadConfigInfo.getMemory().getAdmissionMinHits();
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        if (blocks == 0) {
+            done.complete(null);
+            return done;
         }
 
-        long total = stat.getSize();
-        String fullKey = object + ":FULL";
+        // 同时最多 parallelism 个块在拉取，每完成一个再发起下一个
+        AtomicLong next = new AtomicLong();
+        AtomicLong finished = new AtomicLong();
+        Runnable[] pump = new Runnable[1];
+        pump[0] = () -> {
+            long idx;
+            while ((idx = next.getAndIncrement()) < blocks) {
+                String key = blockKey(content, idx);
+                // 预热的块视为热块，直接满足堆内缓存的准入次数
+                if (idx < memoryBlocks) blockHits.get(key, k -> new AtomicInteger()).accumulateAndGet(minHits, Math::max);
+                if (chunkCache.asMap().containsKey(key) || offHeapChunkStore.contains(key) || diskBlockReady(content, idx)) {
+                    if (finished.incrementAndGet() == blocks) done.complete(null);
+                    continue;
+                }
+                InFlightFetch fetch = fetchBlock(content, idx, FetchScheduler.Lane.SPECULATIVE);
+                // 预热要求完整落盘：没有下载请求在读也不放弃
+                fetch.pin();
+                release(fetch);
+                fetch.completion().whenComplete((f, t) -> {
+                    if (t != null) {
+                        done.completeExceptionally(t);
+                        return;
+                    }
+                    if (finished.incrementAndGet() == blocks) done.complete(null);
+                    else pump[0].run();
+                });
+                return;
+            }
+        };
+        for (int i = 0; i < Math.min(cfg.getParallelism(), blocks); i++) pump[0].run();
+        log.info("prewarm started. object=" + content.object + " blocks=" + blocks);
+        return done;
+    }
+
+    // -------- 块缓存：按 blockSize 对齐，任意区间由其覆盖的块拼装，只拉取缺失的块 --------
+    private ResponseEntity<StreamingResponseBody> serveBlocks(HttpServletRequest request, Content content,
+                                                              long start, long end, HttpStatus status, HttpHeaders headers) {
+        long blockSize = blockSize();
+        long firstBlock = start / blockSize;
+        long lastBlock = end / blockSize;
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(6);
+
+        List<long[]> ranges = Collections.singletonList(new long[]{start, end});
+        if (!fetchAdmission.tryAdmit(coldBlocks(content, ranges))) return tooBusy();
+        Map<Long, InFlightFetch> pending = prepareBlocks(content, ranges);
 
-        // 1) try memory cache for full
-        byte[] memFull = chunkCache.getIfPresent(fullKey);
-        if (memFull != null) {
-            log.info("full memory cache HIT " + fullKey);
-            writeFullHeaders(response, file.getOriginFileName(), total, stat);
-            response.getOutputStream().write(memFull);
-            response.flushBuffer();
-            return new ResponseEntity<>(memFull, HttpStatus.OK);
+        // 只等首字节到达就提交响应：拉取失败发生在此之前时仍能返回正确的状态码
+        ResponseEntity<StreamingResponseBody> failed = awaitFirstByte(pending, start, deadline);
+        if (failed != null) {
+            releaseAll(pending);
+            return failed;
         }
 
-        // 2) try disk cache for full
-        File fullFile = diskFullFile(object);
-        if (fullFile.exists() && fullFile.length() == total) {
-            log.info("full disk cache HIT " + fullFile.getAbsolutePath());
-            // stream file to response (avoid reading entire file into mem)
-            writeFullHeaders(response, file.getOriginFileName(), total, stat);
-            try (InputStream in = new FileInputStream(fullFile);
-                 OutputStream out = response.getOutputStream()) {
-                copyWithClientAbortHandling(in, out);
-                response.flushBuffer();
-            } catch (IOException ioe) {
-                log.log(Level.WARNING, "client aborted or write failed: " + ioe.getMessage());
-                return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+        // 整个响应落在一个只在磁盘上的块内：交给容器 sendfile
+        if (firstBlock == lastBlock && pending.isEmpty()) {
+            String key = blockKey(content, firstBlock);
+            if (!chunkCache.asMap().containsKey(key) && !offHeapChunkStore.contains(key)
+                    && diskBlockReady(content, firstBlock)) {
+                long offset = start - firstBlock * blockSize;
+                File blockFile = diskBlockFile(content, firstBlock);
+                diskChunkStore.touch(blockFile);
+                return sendDiskFile(request, status, headers, blockFile, offset, end - start + 1, true);
+            }
+        }
+
+        return ResponseEntity.status(status).headers(headers).body(throttled(request, out -> {
+            try {
+                writeRange(out, content, start, end, pending, deadline);
+                out.flush();
+            } catch (TimeoutException | IOException e) {
+                throwUnlessClientAbort("fetch block", e);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while streaming " + content.object);
+            } finally {
+                releaseAll(pending);
+            }
+        }));
+    }
+
+    // -------- multipart/byteranges：一次请求返回多个区间，每个区间同样由块缓存拼装 --------
+    private ResponseEntity<StreamingResponseBody> serveMultipart(HttpServletRequest request, Content content, List<long[]> ranges,
+                                                                 HttpHeaders headers) {
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(6);
+
+        if (!fetchAdmission.tryAdmit(coldBlocks(content, ranges))) return tooBusy();
+        // 所有区间覆盖的缺失块一次性并行发起，相邻/重叠区间共用同一个块
+        Map<Long, InFlightFetch> pending = prepareBlocks(content, ranges);
+        ResponseEntity<StreamingResponseBody> failed = awaitFirstByte(pending, ranges.get(0)[0], deadline);
+        if (failed != null) {
+            releaseAll(pending);
+            return failed;
+        }
+
+        List<byte[]> delimiters = multipartDelimiters(content.size, ranges, headers);
+        List<byte[]> partHeaders = delimiters.subList(0, ranges.size());
+        byte[] closeDelimiter = delimiters.get(ranges.size());
+
+        return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT).headers(headers).body(throttled(request, out -> {
+            try {
+                for (int i = 0; i < ranges.size(); i++) {
+                    out.write(partHeaders.get(i));
+                    writeRange(out, content, ranges.get(i)[0], ranges.get(i)[1], pending, deadline);
+                }
+                out.write(closeDelimiter);
+                out.flush();
+            } catch (TimeoutException | IOException e) {
+                throwUnlessClientAbort("fetch block", e);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while streaming " + content.object);
+            } finally {
+                releaseAll(pending);
             }
-            return new ResponseEntity<>(HttpStatus.OK);
+        }));
+    }
+
+    // 分段头与结束边界预先生成（共 ranges.size() + 1 段），Content-Length 精确可知，客户端可以照常显示进度
+    static List<byte[]> multipartDelimiters(long total, List<long[]> ranges, HttpHeaders headers) {
+        String boundary = MimeTypeUtils.generateMultipartBoundaryString();
+        List<byte[]> delimiters = new ArrayList<>(ranges.size() + 1);
+        long contentLength = 0;
+        for (long[] range : ranges) {
+            byte[] partHeader = ("\r\n--" + boundary + "\r\n"
+                    + HttpHeaders.CONTENT_TYPE + ": " + MediaType.APPLICATION_OCTET_STREAM_VALUE + "\r\n"
+                    + HttpHeaders.CONTENT_RANGE + ": bytes " + range[0] + "-" + range[1] + "/" + total + "\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII);
+            delimiters.add(partHeader);
+            contentLength += partHeader.length + range[1] - range[0] + 1;
         }
+        byte[] closeDelimiter = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        delimiters.add(closeDelimiter);
+        contentLength += closeDelimiter.length;
+
+        headers.set(HttpHeaders.CONTENT_TYPE, "multipart/byteranges; boundary=" + boundary);
+        headers.set(HttpHeaders.CONTENT_LENGTH, String.valueOf(contentLength));
+        return delimiters;
+    }
 
-        // 3) in-flight dedupe for full
-        CompletableFuture<byte[]> futureFull = inFlight.computeIfAbsent(fullKey, k -> {
-            CompletableFuture<byte[]> cf = new CompletableFuture<>();
-            downloadPool.submit(() -> {
+    // 统计访问并为缺失的块并行发起拉取（in-flight 去重），命中内存/磁盘的块不触发 MinIO；
+    // 只在磁盘上的块访问次数达到准入门槛时提升进内存
+    private Map<Long, InFlightFetch> prepareBlocks(Content content, List<long[]> ranges) {
+        long blockSize = blockSize();
+        Set<Long> blocks = new LinkedHashSet<>();
+        for (long[] range : ranges) {
+            for (long idx = range[0] / blockSize; idx <= range[1] / blockSize; idx++) blocks.add(idx);
+        }
+        int minHits = downloadConfigInfo.getMemory().getAdmissionMinHits();
+        Map<Long, InFlightFetch> pending = new HashMap<>();
+        for (long idx : blocks) {
+            String key = blockKey(content, idx);
+            claimPrefetch(key);
+            int hits = blockHits.get(key, k -> new AtomicInteger()).incrementAndGet();
+            // asMap().containsKey 不计入命中统计，真正读取在 writeBlockSlice
+            if (chunkCache.asMap().containsKey(key) || offHeapChunkStore.contains(key)) continue;
+            if (!diskBlockReady(content, idx)) {
+                pending.put(idx, fetchBlock(content, idx, FetchScheduler.Lane.INTERACTIVE));
+            } else if (hits >= minHits) {
+                // 拉取中的块由拉取完成时的 admitToMemory 处理；已落盘的块（含被内存淘汰后再次变热的）在这里提升
+                promoteToMemory(key, diskBlockFile(content, idx));
+            }
+        }
+        return pending;
+    }
+
+    private void promoteToMemory(String key, File diskBlock) {
+        if (!promoting.add(key)) return;
+        try {
+            promotionPool.execute(() -> {
                 try {
-                    // If file small enough, fetch as chunk into memory
-                    if (total <= STREAM_DIRECT_THRESHOLD) {
-                        // reuse fetchAndCacheChunk for full range
-                        File diskPart = diskFullFile(object); // temp path
-                        byte[] data = fetchAndCacheChunk(object, 0, total - 1, diskPart);
-                        cf.complete(data);
-                    } else {
-                        // large file: stream from MinIO to disk, then stream to clients
-                        File tmp = new File(diskFullFile(object).getAbsolutePath() + ".tmp");
-                        tmp.getParentFile().mkdirs();
-                        GetObjectResponse resp = null;
-                        try (OutputStream out = new FileOutputStream(tmp)) {
-                            resp = minioUtil.getObject(object, Long.valueOf(0), total);
-                            byte[] buf = new byte[64 * 1024];
-                            int r;
-                            while ((r = resp.read(buf)) != -1) {
-                                out.write(buf, 0, r);
-                            }
-                            out.flush();
-                        } finally {
-                            if (resp != null) {
-                                try { resp.close(); } catch (Exception ignore) {}
-                            }
-                        }
-                        File finalFull = diskFullFile(object);
-                        if (finalFull.exists()) finalFull.delete();
-                        if (!tmp.renameTo(finalFull)) {
-                            // fallback copy
-                            try (InputStream in = new FileInputStream(tmp);
-                                 OutputStream out = new FileOutputStream(finalFull)) {
-                                byte[] b = new byte[32 * 1024];
-                                int rr;
-                                while ((rr = in.read(b)) != -1) out.write(b, 0, rr);
-                            }
-                            tmp.delete();
-                        }
-                        // don't load entire into memory for big file; return empty byte[] and rely on disk streaming
-                        cf.complete(new byte[0]);
-                    }
-                } catch (Throwable t) {
-                    cf.completeExceptionally(t);
+                    if (admitToMemory(key, diskBlock)) promotedFromDisk.increment();
                 } finally {
-                    inFlight.remove(fullKey);
+                    promoting.remove(key);
                 }
             });
-            return cf;
-        });
+        } catch (RejectedExecutionException e) {
+            promoting.remove(key);
+        }
+    }
 
-        try {
-            byte[] res = futureFull.get(15, TimeUnit.MINUTES);
-            if (res != null && res.length > 0) {
-                // small file data already in memory
-                writeFullHeaders(response, file.getOriginFileName(), total, stat);
-                response.getOutputStream().write(res);
-                response.flushBuffer();
-                // save memory-full into chunkCache as FULL key
-                chunkCache.put(fullKey, res);
-                return new ResponseEntity<>(res, HttpStatus.OK);
-            } else {
-                // large file: now diskFullFile should exist; stream it
-                File finalFull = diskFullFile(object);
-                if (!finalFull.exists()) {
-                    log.warning("expected full file after fetch but not found: " + finalFull.getAbsolutePath());
-                    return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
-                }
-                writeFullHeaders(response, file.getOriginFileName(), total, stat);
-                try (InputStream in = new FileInputStream(finalFull)) {
-                    copyWithClientAbortHandling(in, response.getOutputStream());
-                    response.flushBuffer();
-                } catch (IOException ioe) {
-                    log.log(Level.WARNING, "client aborted/write failed: " + ioe.getMessage());
-                    return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+    // 需要新发起拉取的块数：已缓存或已在拉取中的块不占用回源额度
+    private int coldBlocks(Content content, List<long[]> ranges) {
+        long blockSize = blockSize();
+        Set<Long> blocks = new HashSet<>();
+        for (long[] range : ranges) {
+            for (long idx = range[0] / blockSize; idx <= range[1] / blockSize; idx++) {
+                if (blocks.contains(idx)) continue;
+                String key = blockKey(content, idx);
+                if (!inFlight.containsKey(key) && !chunkCache.asMap().containsKey(key)
+                        && !offHeapChunkStore.contains(key) && !diskBlockReady(content, idx)) {
+                    blocks.add(idx);
                 }
-                return new ResponseEntity<>(HttpStatus.OK);
             }
+        }
+        return blocks.size();
+    }
+
+    // 回源积压超限：快速拒绝，由客户端按 Retry-After 重试
+    private <T> ResponseEntity<T> tooBusy() {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(fetchAdmission.retryAfterSeconds()))
+                .build();
+    }
+
+    // 写出 [start, end]，逐块从内存/堆外/磁盘/拉取中的 tmp 文件读取
+    private void writeRange(OutputStream out, Content content, long start, long end,
+                            Map<Long, InFlightFetch> pending, long deadline)
+            throws IOException, InterruptedException, TimeoutException {
+        long blockSize = blockSize();
+        for (long idx = start / blockSize; idx <= end / blockSize; idx++) {
+            long blockStart = idx * blockSize;
+            long from = Math.max(start, blockStart);
+            long to = Math.min(end, blockStart + blockLength(idx, content.size) - 1);
+            writeBlockSlice(out, content, idx, from - blockStart, to - from + 1, pending.get(idx), deadline);
+        }
+    }
+
+    // 写出单个块中 [offset, offset+length) 的部分
+    private void writeBlockSlice(OutputStream out, Content content, long idx,
+                                 long offset, long length, InFlightFetch pending, long deadline)
+            throws IOException, InterruptedException, TimeoutException {
+        if (pending != null) {
+            pending.streamTo(out, offset, length, deadline);
+            return;
+        }
+        String key = blockKey(content, idx);
+        MemoryBlock block = chunkCache.getIfPresent(key);
+        if (block != null) {
+            block.writeTo(out, offset, length);
+            return;
+        }
+        try (OffHeapChunkStore.Lease lease = offHeapChunkStore.acquire(key)) {
+            if (lease != null) {
+                lease.writeTo(out, offset, length);
+                return;
+            }
+        }
+        if (diskBlockReady(content, idx)) {
+            File blockFile = diskBlockFile(content, idx);
+            diskChunkStore.pin(blockFile);
+            try {
+                diskChunkStore.touch(blockFile);
+                copyFileRange(blockFile, offset, length, out);
+                return;
+            } catch (FileNotFoundException | NoSuchFileException e) {
+                // 判断之后、钉住之前恰好被磁盘缓存淘汰，走下面的重新拉取
+            } finally {
+                diskChunkStore.unpin(blockFile);
+            }
+        }
+        // 判断之后被淘汰：重新拉取
+        InFlightFetch refetch = fetchBlock(content, idx, FetchScheduler.Lane.INTERACTIVE);
+        try {
+            refetch.streamTo(out, offset, length, deadline);
+        } finally {
+            release(refetch);
+        }
+    }
+
+    // 区间首字节所在的块若仍在拉取，等待其到达
+    private ResponseEntity<StreamingResponseBody> awaitFirstByte(Map<Long, InFlightFetch> pending, long start, long deadline) {
+        long blockSize = blockSize();
+        InFlightFetch head = pending.get(start / blockSize);
+        if (head == null) return null;
+        return awaitFirstByte(head, start % blockSize, deadline);
+    }
+
+    // 等待拉取到达 pos，失败时返回对应的错误响应，成功返回 null
+    private ResponseEntity<StreamingResponseBody> awaitFirstByte(InFlightFetch fetch, long pos, long deadline) {
+        try {
+            fetch.awaitAvailable(pos, deadline);
+            return null;
         } catch (TimeoutException te) {
-            log.log(Level.WARNING, "fetch full timeout: " + te.getMessage(), te);
-            return new ResponseEntity<>(HttpStatus.GATEWAY_TIMEOUT);
-        } catch (ExecutionException ee) {
-            log.log(Level.WARNING, "fetch full failed: " + ee.getMessage(), ee);
-            return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+            log.log(Level.WARNING, "fetch timeout: " + te.getMessage(), te);
+            return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT).build();
+        } catch (IOException ioe) {
+            log.log(Level.WARNING, "fetch failed: " + ioe.getMessage(), ioe);
+            return ResponseEntity.internalServerError().build();
         } catch (InterruptedException ie) {
             Thread.currentThread().interrupt();
-            return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    private InFlightFetch fetchBlock(Content content, long idx, FetchScheduler.Lane lane) {
+        String key = blockKey(content, idx);
+        // 先认领预读，之后加入的拉取不会再被当作未使用的预读取消
+        claimPrefetch(key);
+        File target = diskBlockFile(content, idx);
+        return startFetch(key, content, idx * blockSize(), blockLength(idx, content.size), target,
+                () -> admitToMemory(key, target), lane);
+    }
+
+    // -------- in-flight dedupe：同一 key 只有一个拉取任务，等待者共享它写出的 tmp 文件 --------
+    private InFlightFetch startFetch(String key, Content content, long offset, long length, File target, Runnable onComplete,
+                                     FetchScheduler.Lane lane) {
+        return startFetch(key, content, offset, length, target, onComplete, lane, true);
+    }
+
+    // viaPeers = false：归属节点替其他节点回源，不再转向节点共享缓存
+    // 返回的拉取已为调用方登记为读取方，读完后须 release
+    private InFlightFetch startFetch(String key, Content content, long offset, long length, File target, Runnable onComplete,
+                                     FetchScheduler.Lane lane, boolean viaPeers) {
+        for (;;) {
+            InFlightFetch existing = inFlight.get(key);
+            if (existing == null) {
+                InFlightFetch fetch = new InFlightFetch(key, length, target, diskChunkStore);
+                fetch.retain();
+                existing = inFlight.putIfAbsent(key, fetch);
+                if (existing == null) {
+                    submitFetch(key, content, offset, fetch, onComplete, lane, viaPeers);
+                    return fetch;
+                }
+            }
+            if (existing.retain()) {
+                // 加入的拉取可能还在低优先级通道排队（预读、预热）
+                fetchScheduler.promote(key, lane);
+                return existing;
+            }
+            // 刚被放弃的孤儿拉取：移除后重新发起
+            inFlight.remove(key, existing);
         }
     }
 
-    // -------- fetchAndCacheChunk: fetch from MinIO, write tmp -> rename, cache memory if small --------
-    private byte[] fetchAndCacheChunk(String object, long start, long end, File diskPart) throws IOException {
-        final int MAX_RETRIES = 3;
-        final long RETRY_BACKOFF_MS = 1000L;
-        Exception lastEx = null;
+    // -------- 孤儿拉取：读取方全部断开后，进度不足且不值得缓存的拉取在宽限期后中止回源 --------
+    private void release(InFlightFetch fetch) {
+        if (!fetch.release()) return;
+        DownloadConfigInfo.Orphan cfg = downloadConfigInfo.getOrphan();
+        if (!Boolean.TRUE.equals(cfg.getEnabled()) || fetch.isPinned() || fetch.completion().isDone()) return;
+        // 宽限期内客户端断点续传重新加入时不取消
+        CompletableFuture.delayedExecutor(cfg.getGrace().toMillis(), TimeUnit.MILLISECONDS)
+                .execute(() -> abandonIfOrphaned(fetch));
+    }
 
-        for (int attempt = 1; attempt <= MAX_RETRIES; attempt++) {
-            if (!diskPart.getParentFile().exists()) diskPart.getParentFile().mkdirs();
+    private void releaseAll(Map<Long, InFlightFetch> pending) {
+        for (InFlightFetch fetch : pending.values()) release(fetch);
+    }
+
+    private void abandonIfOrphaned(InFlightFetch fetch) {
+        if (fetch.completion().isDone() || fetch.isPinned()) return;
+        DownloadConfigInfo.Orphan cfg = downloadConfigInfo.getOrphan();
+        // 已拉取过半（可配置）的继续填充，避免前功尽弃
+        if (fetch.getWritten() * 100 >= fetch.getLength() * cfg.getKeepFillingPercent()) return;
+        // 热块值得缓存：窗口内访问次数达到堆内准入门槛的继续填充
+        AtomicInteger hits = blockHits.getIfPresent(fetch.getKey());
+        if (hits != null && hits.get() >= downloadConfigInfo.getMemory().getAdmissionMinHits()) return;
+        if (!fetch.abandon()) return;
+        inFlight.remove(fetch.getKey(), fetch);
+        long remaining = fetch.getLength() - fetch.getWritten();
+        fetch.fail(new CancellationException("no readers left for " + fetch.getKey()));
+        orphansCancelled.increment();
+        orphanBytesSaved.add(remaining);
+        log.info("cancelled orphaned fetch " + fetch.getKey() + ", skipped " + remaining + " bytes");
+    }
 
-            GetObjectResponse resp = null;
+    private void submitFetch(String key, Content content, long offset, InFlightFetch fetch, Runnable onComplete,
+                             FetchScheduler.Lane lane, boolean viaPeers) {
+        File target = fetch.getTarget();
+        fetchScheduler.submit(key, lane, fetchAdmission.wrap(() -> {
             try {
-                long length = end - start + 1;
-                log.info(String.format("Fetching object=%s range=%d-%d attempt=%d", object, start, end, attempt));
-                resp = minioUtil.getObject(object, start, length);
-
-                File tmp = new File(diskPart.getAbsolutePath() + ".tmp");
-                try (OutputStream out = new FileOutputStream(tmp)) {
-                    byte[] buf = new byte[64 * 1024];
-                    int r;
-                    while ((r = resp.read(buf)) != -1) {
-                        out.write(buf, 0, r);
-                    }
-                    out.flush();
+                // 排队期间已被取消（如未使用的预读超时）
+                if (fetch.isFailed()) return;
+                fetchAndCacheChunk(content, offset, fetch, viaPeers);
+                diskChunkStore.record(target);
+                if (onComplete != null) onComplete.run();
+            } catch (Throwable t) {
+                fetch.fail(t);
+            } finally {
+                inFlight.remove(key, fetch);
+            }
+        }));
+    }
+
+    // -------- 顺序预读：同一客户端对同一内容的相邻请求达到 min-sequential 次后，异步拉取区间之后的若干块 --------
+    private void readAhead(String clientId, Content content, long start, long end) {
+        DownloadConfigInfo.ReadAhead cfg = downloadConfigInfo.getReadAhead();
+        if (!Boolean.TRUE.equals(cfg.getEnabled())) return;
+        // 回源已在排队：预读让路给真实请求
+        if (fetchAdmission.isBusy()) return;
+
+        long blockSize = blockSize();
+        // 以"下一请求应落在的块"为键，同一客户端并行下载多个分段时各自独立计数
+        String stream = content.id + "|" + clientId + "|";
+        Integer previous = sequentialRuns.asMap().remove(stream + start / blockSize);
+        int runs = previous == null ? 1 : previous + 1;
+        sequentialRuns.put(stream + (end + 1) / blockSize, runs);
+        if (runs < cfg.getMinSequential()) return;
+
+        long budget = cfg.getBudget().toBytes();
+        long lastBlock = (content.size - 1) / blockSize;
+        long from = end / blockSize + 1;
+        for (long idx = from; idx <= Math.min(lastBlock, from + cfg.getBlocks() - 1); idx++) {
+            String key = blockKey(content, idx);
+            if (prefetched.asMap().containsKey(key) || inFlight.containsKey(key)
+                    || chunkCache.asMap().containsKey(key) || offHeapChunkStore.contains(key)
+                    || diskBlockReady(content, idx)) {
+                continue;
+            }
+            long bytes = blockLength(idx, content.size);
+            if (prefetchOutstanding.addAndGet(bytes) > budget) {
+                prefetchOutstanding.addAndGet(-bytes);
+                prefetchOverBudget.increment();
+                return;
+            }
+            File target = diskBlockFile(content, idx);
+            InFlightFetch fetch = new InFlightFetch(key, bytes, target, diskChunkStore);
+            Prefetch p = new Prefetch(fetch, bytes);
+            // 先登记预读再放入 inFlight：请求方在两步之间认领时，只会把这次预读算作已使用
+            prefetched.put(key, p);
+            if (inFlight.putIfAbsent(key, fetch) != null) {
+                if (prefetched.asMap().remove(key, p)) prefetchOutstanding.addAndGet(-bytes);
+                continue;
+            }
+            prefetchIssued.increment();
+            submitFetch(key, content, idx * blockSize, fetch, () -> admitToMemory(key, target),
+                    FetchScheduler.Lane.SPECULATIVE, true);
+        }
+    }
+
+    private void claimPrefetch(String key) {
+        Prefetch p = prefetched.asMap().remove(key);
+        if (p == null) return;
+        prefetchOutstanding.addAndGet(-p.bytes);
+        prefetchUsed.increment();
+    }
+
+    // 在 evictionListener 中调用，与 claimPrefetch 对同一 key 互斥
+    private void cancelPrefetch(String key, Prefetch p) {
+        prefetchOutstanding.addAndGet(-p.bytes);
+        if (p.fetch.completion().isDone()) return;
+        // 先从 inFlight 移除，之后的请求会发起新的拉取而不是加入即将取消的这个
+        inFlight.remove(key, p.fetch);
+        p.fetch.fail(new CancellationException("unused prefetch " + key));
+        prefetchCancelled.increment();
+    }
+
+    // -------- 节点间复制：其他节点按 key 读取本节点拉取中或已缓存的数据（见 ClusterFetchCoordinator） --------
+    // caller 为对端节点的 node-url（调用方已校验口令）
+    public ResponseEntity<StreamingResponseBody> servePeer(String key, long offset, String object, String etag, Long size,
+                                                           String caller, HttpServletRequest request) {
+        claimPrefetch(key);
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(6);
+
+        InFlightFetch fetch = inFlight.get(key);
+        // 对端节点同样是读取方：它断开后本节点的拉取也可能成为孤儿
+        if (fetch != null && !fetch.retain()) fetch = null;
+        if (fetch == null && object != null && etag != null && size != null) {
+            // 归属节点读穿：只替环上其他成员回源归属本节点的 key，其余调用方只能读取已有的数据
+            if (!peerRing.acceptsReadThrough(caller, key)) {
+                log.warning("peer read-through rejected. key=" + key + " caller=" + caller);
+                return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+            }
+            // 本地没有就回源并缓存（不再转向其他节点，避免环视图不一致时来回转发）
+            fetch = startOwnedFetch(key, new Content(object, etag, size));
+        }
+        return servePeerLocal(key, offset, fetch, deadline, request);
+    }
+
+    private ResponseEntity<StreamingResponseBody> servePeerLocal(String key, long offset, InFlightFetch fetch, long deadline,
+                                                                 HttpServletRequest request) {
+        if (fetch != null && offset <= fetch.getLength()) {
+            long length = fetch.getLength() - offset;
+            return ResponseEntity.ok().contentLength(length).body(out -> {
+                try {
+                    fetch.streamTo(out, offset, length, deadline);
+                } catch (TimeoutException | IOException e) {
+                    // 本地拉取失败时中止连接，对端立即收到错误并改走其他来源，而不是等 StallWatch 判定停滞
+                    throwUnlessClientAbort("peer copy", e);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted while serving " + key + " to peer");
+                } finally {
+                    release(fetch);
                 }
+            });
+        }
+        if (fetch != null) release(fetch);
 
-                if (diskPart.exists()) diskPart.delete();
-                if (!tmp.renameTo(diskPart)) {
-                    try (InputStream in = new FileInputStream(tmp);
-                         OutputStream out = new FileOutputStream(diskPart)) {
-                        byte[] buf2 = new byte[32 * 1024];
-                        int rr;
-                        while ((rr = in.read(buf2)) != -1) out.write(buf2, 0, rr);
-                    }
-                    tmp.delete();
+        MemoryBlock block = chunkCache.getIfPresent(key);
+        if (block != null && offset <= block.rawLength()) {
+            return ResponseEntity.ok().contentLength(block.rawLength() - offset)
+                    .body(out -> block.writeTo(out, offset, block.rawLength() - offset));
+        }
+
+        File f = diskFileForKey(key);
+        if (f != null && f.isFile() && offset <= f.length()) {
+            diskChunkStore.touch(f);
+            HttpHeaders headers = new HttpHeaders();
+            headers.setContentLength(f.length() - offset);
+            // 节点间复制不参与客户端带宽调度
+            return sendDiskFile(request, HttpStatus.OK, headers, f, offset, f.length() - offset, false);
+        }
+        return ResponseEntity.notFound().build();
+    }
+
+    // 归属节点收到读穿请求：按 key 发起本地回源，已在磁盘/内存中时返回 null 由调用方直接读取
+    private InFlightFetch startOwnedFetch(String key, Content content) {
+        if (key.endsWith(FULL_SUFFIX)) {
+            if (!key.equals(content.id + FULL_SUFFIX)) return null;
+            File target = diskFullFile(content);
+            if (target.exists() && target.length() == content.size) return null;
+            return startFetch(key, content, 0, content.size, target, null, FetchScheduler.Lane.BULK, false);
+        }
+        int sep = key.lastIndexOf('#');
+        if (sep <= 0 || !key.substring(0, sep).equals(content.id)) return null;
+        long idx;
+        try {
+            idx = Long.parseLong(key.substring(sep + 1));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (idx < 0 || idx * blockSize() >= content.size) return null;
+        // 归属节点替整个集群缓存该块，访问计数以集群请求为准
+        int hits = blockHits.get(key, k -> new AtomicInteger()).incrementAndGet();
+        if (chunkCache.asMap().containsKey(key) || offHeapChunkStore.contains(key)) return null;
+        File target = diskBlockFile(content, idx);
+        if (diskBlockReady(content, idx)) {
+            if (hits >= downloadConfigInfo.getMemory().getAdmissionMinHits()) promoteToMemory(key, target);
+            return null;
+        }
+        return startFetch(key, content, idx * blockSize(), blockLength(idx, content.size), target,
+                () -> admitToMemory(key, target), FetchScheduler.Lane.INTERACTIVE, false);
+    }
+
+    // 客户端标识：请求头可由客户端任意填写，只有经可信代理转发的请求才采用，否则按连接的远端地址区分
+    private String clientId(HttpServletRequest request) {
+        return clientId(request.getHeader("X-Forwarded-For"), request.getRemoteAddr());
+    }
+
+    private String clientId(String forwarded, String remoteAddr) {
+        if (forwarded == null || forwarded.isBlank() || !trustedProxy(remoteAddr)) return remoteAddr;
+        // 代理把连接地址追加在末尾，最左侧的值可能由客户端伪造：从右向左取第一个不是可信代理的地址
+        String[] hops = forwarded.split(",");
+        for (int i = hops.length - 1; i >= 0; i--) {
+            String hop = hops[i].trim();
+            if (!hop.isEmpty() && !trustedProxy(hop)) return hop;
+        }
+        return remoteAddr;
+    }
+
+    private boolean trustedProxy(String addr) {
+        return addr != null && downloadConfigInfo.getTrustedProxies().contains(addr);
+    }
+
+    private static final class Prefetch {
+        final InFlightFetch fetch;
+        final long bytes;
+
+        Prefetch(InFlightFetch fetch, long bytes) {
+            this.fetch = fetch;
+            this.bytes = bytes;
+        }
+    }
+
+    private long blockSize() {
+        return downloadConfigInfo.getBlockSize().toBytes();
+    }
+
+    private long blockLength(long idx, long total) {
+        return Math.min(blockSize(), total - idx * blockSize());
+    }
+
+    private static String blockKey(Content content, long idx) {
+        return content.id + "#" + idx;
+    }
+
+    private boolean diskBlockReady(Content content, long idx) {
+        File f = diskBlockFile(content, idx);
+        return f.exists() && f.length() == blockLength(idx, content.size);
+    }
+
+    // -------- fetchAndCacheChunk: fetch from MinIO（集群模式下先经租约去重）追加写入 fetch 的 tmp 文件，失败后从已写位置续传 --------
+    private void fetchAndCacheChunk(Content content, long offset, InFlightFetch fetch, boolean viaPeers) throws IOException {
+        fetch.start();
+        if (viaPeers && peerRing.isEnabled() && !peerRing.isLocal(fetch.getKey())) {
+            // 节点共享缓存：先向该块的归属节点读取，由其回源并缓存，集群内每个块只需回源一次
+            String owner = peerRing.ownerOf(fetch.getKey());
+            if (clusterFetch.readThroughPeer(owner, fetch, content.object, content.etag, content.size)) {
+                fetch.complete();
+                return;
+            }
+            if (fetch.isFailed()) throw new CancellationException("fetch cancelled: " + fetch.getKey());
+            // 归属节点不可用：继续走租约去重 / 直接回源，从已复制的位置续传
+        }
+        ClusterFetchCoordinator.Lease lease = null;
+        if (clusterFetch.isEnabled()) {
+            // 跨节点 single-flight：拿到租约的节点回源，其余节点从持有者流式复制
+            for (int attempt = 1; attempt <= CLUSTER_ATTEMPTS; attempt++) {
+                lease = clusterFetch.tryAcquire(fetch.getKey());
+                if (lease != null) break;
+                String owner = clusterFetch.owner(fetch.getKey());
+                if (owner != null && clusterFetch.copyFromPeer(owner, fetch)) {
+                    fetch.complete();
+                    return;
                 }
+                if (fetch.isFailed()) throw new CancellationException("fetch cancelled: " + fetch.getKey());
+                try { Thread.sleep(CLUSTER_RETRY_MS); } catch (InterruptedException ie) { Thread.currentThread().interrupt(); throw new IOException("interrupted", ie); }
+            }
+            // 仍未获得租约也未复制成功（持有者不可达或刚释放）：直接回源，从已复制的位置续传
+        }
+        try {
+            fetchFromMinio(content, offset, fetch);
+        } finally {
+            if (lease != null) lease.close();
+        }
+    }
 
-                byte[] data = readAllBytes(diskPart);
-                if (data.length <= 16 * 1024 * 1024) { // small chunk keep in mem
-                    String chunkKey = object + ":" + start + "-" + end;
-                    chunkCache.put(chunkKey, data);
+    // 区间读取由 HedgedMinioReader 负责对冲与失败重试；读到一半断开时从已写入的位置续读
+    private void fetchFromMinio(Content content, long offset, InFlightFetch fetch) throws IOException {
+        int maxAttempts = Math.max(1, downloadConfigInfo.getHedge().getMaxAttempts());
+        for (int attempt = 1; ; attempt++) {
+            long written = fetch.getWritten();
+            long remaining = fetch.getLength() - written;
+            log.info(String.format("Fetching object=%s range=%d-%d attempt=%d",
+                    content.object, offset + written, offset + fetch.getLength() - 1, attempt));
+            byte[] buf = BufferPool.acquire();
+            // 带上 ETag 条件：对象在 stat 缓存有效期内被覆盖时 MinIO 返回 412，不会把新内容写进旧版本的缓存
+            try (InputStream in = hedgedMinioReader.open(content.object, offset + written, remaining, content.etag, fetch::isFailed)) {
+                int r;
+                while (remaining > 0 && (r = in.read(buf, 0, (int) Math.min(buf.length, remaining))) != -1) {
+                    if (fetch.isFailed()) throw new CancellationException("fetch cancelled: " + fetch.getKey());
+                    fetch.append(buf, 0, r);
+                    remaining -= r;
                 }
-                return data;
-            } catch (Exception ex) {
-                lastEx = ex;
-                log.log(Level.WARNING, "fetch attempt failed: " + ex.getMessage(), ex);
-                try { Thread.sleep(RETRY_BACKOFF_MS * attempt); } catch (InterruptedException ie) { Thread.currentThread().interrupt(); throw new IOException("interrupted", ie); }
-            } finally {
-                if (resp != null) {
-                    try { resp.close(); } catch (Exception ignore) {}
+                if (remaining > 0) throw new EOFException("short read, missing " + remaining + " bytes");
+
+                fetch.complete();
+                return;
+            } catch (IOException ex) {
+                if (fetch.isFailed()) throw new CancellationException("fetch cancelled: " + fetch.getKey());
+                if (MinioUtil.isPreconditionFailed(ex)) {
+                    // 对象已被覆盖：丢弃过期的 stat，下次请求按新版本的内容标识重新缓存
+                    objectStatCache.invalidate(content.object);
+                    redisUtil.del("stat:" + content.object);
+                    throw new IOException("object " + content.object + " changed, etag " + content.etag + " no longer matches", ex);
                 }
+                // 打开阶段的失败已在 reader 内按预算重试过；只有读取中途断开且有进展时才续读
+                if (attempt >= maxAttempts || fetch.getWritten() == written) throw ex;
+                log.log(Level.WARNING, "fetch interrupted at " + fetch.getWritten() + ", resuming: " + ex.getMessage());
+            } finally {
+                BufferPool.release(buf);
             }
         }
-        throw new IOException("fetch failed after retries", lastEx);
     }
 
-    // -------- 工具：读全部字节（谨慎：用于小文件/分片） --------
+    // -------- 堆内缓存准入：超大块、只访问一次的块只留在磁盘；放入内存（堆内或堆外）时返回 true --------
+    private boolean admitToMemory(String chunkKey, File diskBlock) {
+        // 节点共享缓存开启时只有归属节点把块放进内存，集群内存里每个热块只有一份
+        if (!peerRing.isLocal(chunkKey)) return false;
+        DownloadConfigInfo.Memory memory = downloadConfigInfo.getMemory();
+        AtomicInteger hits = blockHits.getIfPresent(chunkKey);
+        if (diskBlock.length() > memory.getAdmissionMaxBlock().toBytes()
+                || hits == null || hits.get() < memory.getAdmissionMinHits()) {
+            admissionRejected.increment();
+            return false;
+        }
+        byte[] data;
+        try {
+            data = readAllBytes(diskBlock);
+        } catch (IOException e) {
+            log.log(Level.WARNING, "read block for memory cache failed: " + e.getMessage());
+            return false;
+        }
+        // 堆外层开启时热块放堆外；堆外放不下（槽位都在读取中）再退回堆内
+        if (offHeapChunkStore.isEnabled() && offHeapChunkStore.put(chunkKey, data)) return true;
+        MemoryBlock block = memory.getCompression() == DownloadConfigInfo.MemoryCompression.LZ4
+                ? MemoryBlock.of(data, memory.getCompressionMinRatio())
+                : MemoryBlock.raw(data);
+        if (block.isCompressed()) {
+            compressedBlocks.increment();
+            compressedRawBytes.add(block.rawLength());
+            compressedStoredBytes.add(block.weight());
+        }
+        chunkCache.put(chunkKey, block);
+        return true;
+    }
+
+    // -------- 缓存指标：用于按实测数据调整堆大小 --------
+    public Map<String, Object> chunkCacheStats() {
+        CacheStats stats = chunkCache.stats();
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("entries", chunkCache.estimatedSize());
+        chunkCache.policy().eviction().ifPresent(e -> {
+            m.put("weightedSize", e.weightedSize().orElse(0L));
+            m.put("maxWeight", e.getMaximum());
+        });
+        m.put("hitCount", stats.hitCount());
+        m.put("missCount", stats.missCount());
+        m.put("hitRate", stats.hitRate());
+        m.put("evictionCount", stats.evictionCount());
+        m.put("evictionWeight", stats.evictionWeight());
+        m.put("admissionRejected", admissionRejected.sum());
+        m.put("promotedFromDisk", promotedFromDisk.sum());
+        // 累计压缩进堆的块：原始字节 / 实际占用，即压缩带来的容量倍数
+        m.put("compressedBlocks", compressedBlocks.sum());
+        long stored = compressedStoredBytes.sum();
+        m.put("compressionRatio", stored == 0 ? 1.0 : (double) compressedRawBytes.sum() / stored);
+        m.put("prefetchIssued", prefetchIssued.sum());
+        m.put("prefetchUsed", prefetchUsed.sum());
+        m.put("prefetchCancelled", prefetchCancelled.sum());
+        m.put("prefetchOverBudget", prefetchOverBudget.sum());
+        m.put("prefetchOutstandingBytes", prefetchOutstanding.get());
+        m.put("orphansCancelled", orphansCancelled.sum());
+        m.put("orphanBytesSaved", orphanBytesSaved.sum());
+        return m;
+    }
+
+    // -------- 工具：读全部字节（谨慎：用于小文件/分片），按文件长度一次分配，不经过中间缓冲 --------
     private static byte[] readAllBytes(File f) throws IOException {
         try (InputStream in = new FileInputStream(f)) {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream((int) Math.min(f.length(), Integer.MAX_VALUE));
-            byte[] buf = new byte[32 * 1024];
-            int r;
-            while ((r = in.read(buf)) != -1) baos.write(buf, 0, r);
-            return baos.toByteArray();
+            long length = f.length();
+            if (length > Integer.MAX_VALUE - 8) throw new IOException("file too large to buffer: " + f);
+            byte[] data = new byte[(int) length];
+            int n = in.readNBytes(data, 0, data.length);
+            if (n != length) throw new EOFException("short read " + f + ": " + n + "/" + length);
+            return data;
         }
     }
 
-    // -------- 磁盘路径生成器 --------
-    private static File diskPartFile(String object, long start, long end) {
-        String safe = Integer.toHexString(Objects.hashCode(object));
-        String folder = "cache" + File.separator + safe;
-        String fileName = String.format("part-%d-%d", start, end);
+    // -------- 磁盘路径生成器：目录即内容标识，同一内容不同对象名共享一份缓存 --------
+    private File diskBlockFile(Content content, long idx) {
+        return diskBlockFile(content.id, idx);
+    }
+    private File diskBlockFile(String contentId, long idx) {
+        File folder = new File(diskChunkStore.getRoot(), contentId);
+        // 文件名带上块大小，调整 block-size 后旧块不会被误用
+        String fileName = String.format("block-%d-%d", blockSize(), idx);
         return new File(folder, fileName);
     }
-    private static File diskFullFile(String object) {
-        String safe = Integer.toHexString(Objects.hashCode(object));
-        String folder = "cache" + File.separator + safe;
+    private File diskFullFile(Content content) {
+        return diskFullFile(content.id);
+    }
+    private File diskFullFile(String contentId) {
+        File folder = new File(diskChunkStore.getRoot(), contentId);
         String fileName = "full";
         return new File(folder, fileName);
     }
+    private File diskGzipFile(Content content) {
+        return new File(new File(diskChunkStore.getRoot(), content.id), "full.gz");
+    }
 
-    // -------- Headers helpers --------
-    private static void writeRangeHeaders(HttpServletResponse response, String fileName, long start, long end, long total, CachedObjectStat stat) {
-        try {
-            response.setHeader("Accept-Ranges", "bytes");
-            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
-            response.setHeader("Last-Modified", stat.getLastModified());
-            byte[] fileNameBytes = fileName.getBytes(StandardCharsets.UTF_8);
-            String asciiName = new String(fileNameBytes, 0, fileNameBytes.length, StandardCharsets.ISO_8859_1);
-            response.setHeader("Content-Disposition", "attachment;filename=" + asciiName);
-            response.setHeader("Content-Length", String.valueOf(end - start + 1));
-            response.setHeader("Content-Range", "bytes " + start + "-" + end + "/" + total);
-            response.setHeader("ETag", "\"".concat(stat.getEtag()).concat("\""));
-            response.setContentType("application/octet-stream;charset=UTF-8");
-        } catch (Exception e) { /* ignore */ }
-    }
-
-    private static void writeFullHeaders(HttpServletResponse response, String fileName, long total, CachedObjectStat stat) {
+    // 由缓存 key（contentId#blockIndex 或 contentId:FULL）反推磁盘文件，非法 key 返回 null
+    private File diskFileForKey(String key) {
+        if (key.endsWith(FULL_SUFFIX)) {
+            String id = key.substring(0, key.length() - FULL_SUFFIX.length());
+            return CONTENT_ID.matcher(id).matches() ? diskFullFile(id) : null;
+        }
+        int sep = key.lastIndexOf('#');
+        if (sep <= 0) return null;
+        String id = key.substring(0, sep);
+        if (!CONTENT_ID.matcher(id).matches()) return null;
         try {
-            response.setHeader("Accept-Ranges", "bytes");
-            response.setStatus(HttpServletResponse.SC_OK);
-            response.setHeader("Last-Modified", stat.getLastModified());
-            byte[] fileNameBytes = fileName.getBytes(StandardCharsets.UTF_8);
-            String asciiName = new String(fileNameBytes, 0, fileNameBytes.length, StandardCharsets.ISO_8859_1);
-            response.setHeader("Content-Disposition", "attachment;filename=" + asciiName);
-            response.setHeader("Content-Length", String.valueOf(total));
-            response.setHeader("ETag", "\"".concat(stat.getEtag()).concat("\""));
-            response.setContentType("application/octet-stream;charset=UTF-8");
-        } catch (Exception e) { /* ignore */ }
+            return diskBlockFile(id, Long.parseLong(key.substring(sep + 1)));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // -------- 内容标识 --------
+    // 以 stat 中的 ETag + 大小作为缓存键：单段上传时 ETag 即内容 MD5（与 Files.md5 相同），
+    // 分段上传时为各段 MD5 的摘要，同样由内容决定。不直接使用 Files.md5：
+    // 同名对象被重新上传（如 SFTP 重新同步）后，旧的 Files 记录仍指向该对象，其 md5 已与对象内容不符
+    private static final Pattern CONTENT_ID = Pattern.compile("[0-9a-z_-]+");
+
+    private static String contentId(String etag, long size) {
+        String normalized = etag == null ? "" : etag.replace("\"", "").toLowerCase();
+        return normalized.replaceAll("[^0-9a-z-]", "_") + "-" + size;
+    }
+
+    // 一个对象版本：缓存按内容标识 id 存放，拉取时按对象名读取并用 ETag 校验版本
+    private static final class Content {
+        final String object;
+        final String etag;
+        final String id;
+        final long size;
+
+        Content(String object, CachedObjectStat stat) {
+            this(object, stat.getEtag(), stat.getSize());
+        }
+
+        Content(String object, String etag, long size) {
+            this.object = object;
+            this.etag = etag;
+            this.id = contentId(etag, size);
+            this.size = size;
+        }
+    }
+
+    // -------- Headers helpers --------
+    private static HttpHeaders rangeHeaders(String fileName, long start, long end, long total, CachedObjectStat stat) {
+        HttpHeaders headers = commonHeaders(fileName, stat);
+        headers.set(HttpHeaders.CONTENT_LENGTH, String.valueOf(end - start + 1));
+        headers.set(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + total);
+        return headers;
+    }
+
+    private static HttpHeaders fullHeaders(String fileName, long total, CachedObjectStat stat) {
+        HttpHeaders headers = commonHeaders(fileName, stat);
+        headers.set(HttpHeaders.CONTENT_LENGTH, String.valueOf(total));
+        return headers;
+    }
+
+    private static HttpHeaders commonHeaders(String fileName, CachedObjectStat stat) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+        // Last-Modified 按 HTTP-date 输出，客户端回传的 If-Modified-Since 才能被解析
+        long lastModified = lastModifiedMillis(stat);
+        if (lastModified >= 0) headers.setLastModified(lastModified);
+        byte[] fileNameBytes = fileName.getBytes(StandardCharsets.UTF_8);
+        String asciiName = new String(fileNameBytes, 0, fileNameBytes.length, StandardCharsets.ISO_8859_1);
+        headers.set(HttpHeaders.CONTENT_DISPOSITION, "attachment;filename=" + asciiName);
+        headers.set(HttpHeaders.ETAG, quotedEtag(stat));
+        headers.set(HttpHeaders.CONTENT_TYPE, "application/octet-stream;charset=UTF-8");
+        return headers;
+    }
+
+    // -------- 磁盘文件发送：优先容器 sendfile（零拷贝），否则回退到复制循环；限速时 sendfile 无法按块调度，只走复制 --------
+    private ResponseEntity<StreamingResponseBody> sendDiskFile(HttpServletRequest request, HttpStatus status, HttpHeaders headers,
+                                                               File f, long offset, long length, boolean throttle) {
+        // sendfile 在请求结束后才由 Tomcat 打开文件，复制写出在异步线程上进行：钉住到请求结束，期间不被淘汰
+        diskChunkStore.pinUntilRequestEnds(request, f);
+        throttle = throttle && bandwidth.isEnabled();
+        if (!throttle && Boolean.TRUE.equals(downloadConfigInfo.getZeroCopy())
+                && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED_ATTR))
+                && request.getAttribute(ASYNC_RESPONSE_ATTR) == null) {
+            try {
+                // 只登记文件区间并返回无 body 的响应：请求同步结束后 Tomcat 用 FileChannel.transferTo 直接写 socket
+                request.setAttribute(SENDFILE_FILENAME_ATTR, f.getCanonicalPath());
+                request.setAttribute(SENDFILE_START_ATTR, offset);
+                request.setAttribute(SENDFILE_END_ATTR, offset + length);
+                return ResponseEntity.status(status).headers(headers).build();
+            } catch (IOException e) {
+                log.log(Level.WARNING, "sendfile unavailable, fallback to copy: " + e.getMessage());
+            }
+        }
+        StreamingResponseBody body = out -> {
+            try {
+                copyFileRange(f, offset, length, out);
+            } catch (IOException ioe) {
+                throwUnlessClientAbort("disk read", ioe);
+            }
+        };
+        return ResponseEntity.status(status).headers(headers).body(throttle ? throttled(request, body) : body);
+    }
+
+    // 响应体经带宽调度写出：同一客户端的所有连接共用一个令牌桶
+    private StreamingResponseBody throttled(HttpServletRequest request, StreamingResponseBody body) {
+        if (!bandwidth.isEnabled()) return body;
+        String header = downloadConfigInfo.getBandwidth().getClientHeader();
+        String client = header == null || !trustedProxy(request.getRemoteAddr()) ? null : request.getHeader(header);
+        String clientId = client == null || client.isBlank() ? clientId(request) : client;
+        return out -> {
+            try (OutputStream throttledOut = bandwidth.open(clientId, out)) {
+                body.writeTo(throttledOut);
+            }
+        };
+    }
+
+    // 跨多个块的区间、限速或异步提交的响应无法交给 sendfile：Tomcat 输出流（或包着它的限速流）可直接接收 ByteBuffer 时用 FileChannel.transferTo 写出，
+    // 经 JDK 的临时 direct 缓冲进入连接器缓冲区，不经过 Java 堆；其他输出流走复制循环
+    private static void copyFileRange(File f, long offset, long length, OutputStream out) throws IOException {
+        WritableByteChannel target = byteBufferChannel(out);
+        if (target != null) {
+            try (FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+                long pos = offset;
+                long end = offset + length;
+                while (pos < end) {
+                    long n = channel.transferTo(pos, end - pos, target);
+                    if (n <= 0) throw new EOFException("unexpected EOF in " + f + " at " + pos);
+                    pos += n;
+                }
+            }
+            out.flush();
+            return;
+        }
+        try (InputStream in = new FileInputStream(f)) {
+            in.skipNBytes(offset);
+            copyWithClientAbortHandling(in, out, length);
+        }
+    }
+
+    // Tomcat 输出流，或包着它的限速流（带宽调度按同样的令牌计量）；其他输出流返回 null
+    private static WritableByteChannel byteBufferChannel(OutputStream out) {
+        if (out instanceof CoyoteOutputStream) return byteBufferChannel(((CoyoteOutputStream) out)::write);
+        if (out instanceof BandwidthScheduler.ThrottledStream && ((BandwidthScheduler.ThrottledStream) out).acceptsByteBuffer()) {
+            return byteBufferChannel(((BandwidthScheduler.ThrottledStream) out)::write);
+        }
+        return null;
+    }
+
+    private interface ByteBufferSink {
+        void write(ByteBuffer src) throws IOException;
+    }
+
+    private static WritableByteChannel byteBufferChannel(ByteBufferSink out) {
+        return new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer src) throws IOException {
+                int n = src.remaining();
+                out.write(src);
+                src.position(src.limit());
+                return n;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    // -------- 响应已提交后的失败：客户端断开只记日志；拉取失败、超时等重新抛出，由容器中止连接 --------
+    // 吞掉的话 Content-Length 未写满的响应留在 keep-alive 连接上，客户端要等到自己的读超时，连接也不能复用
+    private static void throwUnlessClientAbort(String what, Exception e) throws IOException {
+        if (e instanceof ClientAbortException) {
+            log.log(Level.WARNING, "client aborted: " + e.getMessage());
+            return;
+        }
+        log.log(Level.WARNING, what + " failed after response committed, aborting connection: " + e.getMessage(), e);
+        throw e instanceof IOException ? (IOException) e : new IOException(what + " failed: " + e.getMessage(), e);
     }
 
     // -------- 安全复制：处理客户端中断 (Broken pipe) --------
-    private static void copyWithClientAbortHandling(InputStream in, OutputStream out) throws IOException {
-        byte[] buf = new byte[64 * 1024];
+    private static void copyWithClientAbortHandling(InputStream in, OutputStream out, long length) throws IOException {
+        byte[] buf = BufferPool.acquire();
+        long remaining = length;
         int r;
         try {
-            while ((r = in.read(buf)) != -1) {
+            while (remaining > 0 && (r = in.read(buf, 0, (int) Math.min(buf.length, remaining))) != -1) {
                 out.write(buf, 0, r);
+                remaining -= r;
             }
             out.flush();
         } catch (IOException ioe) {
             // client may have aborted — log and rethrow to upper layer to handle gracefully
             throw ioe;
+        } finally {
+            BufferPool.release(buf);
         }
     }
 
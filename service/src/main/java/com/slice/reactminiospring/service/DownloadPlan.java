@@ -0,0 +1,112 @@
+package com.slice.reactminiospring.service;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 一次下载响应的规划：状态码、响应头，以及按顺序组成响应体的片段（见 DownloadManager.plan）
+ * - 片段来自堆内块、堆外块、磁盘缓存文件或拉取中的 tmp 文件，由调用方按背压逐段写出，规划本身不读取数据
+ * - 规划时为拉取登记的读取方、持有的堆外租约与钉住的磁盘文件，写出结束（含客户端断开）后须调用 DownloadManager.release(plan)
+ */
+public final class DownloadPlan {
+
+    private final HttpStatus status;
+    private final HttpHeaders headers;
+    private final List<Slice> body;
+    final List<InFlightFetch> retained;
+
+    DownloadPlan(HttpStatus status, HttpHeaders headers, List<Slice> body, List<InFlightFetch> retained) {
+        this.status = status;
+        this.headers = headers;
+        this.body = body;
+        this.retained = retained;
+    }
+
+    /**
+     * 无响应体的响应（404、304、412、503、HEAD 等）
+     */
+    static DownloadPlan of(ResponseEntity<?> response) {
+        return new DownloadPlan(HttpStatus.valueOf(response.getStatusCode().value()), response.getHeaders(),
+                Collections.emptyList(), Collections.emptyList());
+    }
+
+    public HttpStatus getStatus() {
+        return status;
+    }
+
+    public HttpHeaders getHeaders() {
+        return headers;
+    }
+
+    public List<Slice> getBody() {
+        return body;
+    }
+
+    /**
+     * 响应体中的一段：memory、offHeap、file、fetch 四者恰有一个非空，offset/length 为该来源内的区间
+     */
+    public static final class Slice {
+        private final MemoryBlock memory;
+        private final OffHeapChunkStore.Lease offHeap;
+        private final File file;
+        private final InFlightFetch fetch;
+        private final long offset;
+        private final long length;
+
+        private Slice(MemoryBlock memory, OffHeapChunkStore.Lease offHeap, File file, InFlightFetch fetch,
+                      long offset, long length) {
+            this.memory = memory;
+            this.offHeap = offHeap;
+            this.file = file;
+            this.fetch = fetch;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        static Slice memory(MemoryBlock memory, long offset, long length) {
+            return new Slice(memory, null, null, null, offset, length);
+        }
+
+        // 租约随规划持有到 release(plan)，写出期间槽位不会被复用
+        static Slice offHeap(OffHeapChunkStore.Lease lease, long offset, long length) {
+            return new Slice(null, lease, null, null, offset, length);
+        }
+
+        static Slice file(File file, long offset, long length) {
+            return new Slice(null, null, file, null, offset, length);
+        }
+
+        static Slice fetch(InFlightFetch fetch, long offset, long length) {
+            return new Slice(null, null, null, fetch, offset, length);
+        }
+
+        public MemoryBlock getMemory() {
+            return memory;
+        }
+
+        public OffHeapChunkStore.Lease getOffHeap() {
+            return offHeap;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public InFlightFetch getFetch() {
+            return fetch;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public long getLength() {
+            return length;
+        }
+    }
+}
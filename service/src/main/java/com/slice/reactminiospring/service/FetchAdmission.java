@@ -0,0 +1,102 @@
+package com.slice.reactminiospring.service;
+
+import com.slice.reactminiospring.config.DownloadConfigInfo;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 回源拉取的准入控制与背压
+ * - 同时执行的拉取数由 max-cold-fetches 限制（FetchScheduler 按通道调度），超出的拉取排队等待
+ * - 排队数达到 max-queue 后，需要新拉取的请求直接返回 503，Retry-After 按积压量与平均拉取耗时估算
+ * - 判断与提交之间不加锁，并发请求可能略微超过上限，只作为软限制
+ */
+@Slf4j
+@Component
+public class FetchAdmission {
+
+    // 平均拉取耗时的指数滑动平均系数
+    private static final double EWMA_ALPHA = 0.2;
+
+    @Resource
+    private DownloadConfigInfo downloadConfigInfo;
+
+    private boolean enabled;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+    private volatile double avgFetchMillis;
+
+    @PostConstruct
+    public void init() {
+        DownloadConfigInfo.Admission cfg = downloadConfigInfo.getAdmission();
+        enabled = Boolean.TRUE.equals(cfg.getEnabled());
+        log.info("FetchAdmission initialized. enabled={} maxColdFetches={} maxQueue={}",
+                enabled, cfg.getMaxColdFetches(), cfg.getMaxQueue());
+    }
+
+    /**
+     * 请求需要新发起 fetches 个拉取时是否放行；不需要拉取（全部命中缓存或加入已有拉取）的请求总是放行
+     */
+    public boolean tryAdmit(int fetches) {
+        if (!enabled || fetches == 0) return true;
+        if (queued.get() < downloadConfigInfo.getAdmission().getMaxQueue()) return true;
+        rejected.increment();
+        return false;
+    }
+
+    /**
+     * 是否已有拉取在排队，预读等可选的拉取此时应让路
+     */
+    public boolean isBusy() {
+        return enabled && queued.get() > 0;
+    }
+
+    /**
+     * 包装一个拉取任务：提交时计入排队，开始执行后计入执行中并计时
+     */
+    public Runnable wrap(Runnable task) {
+        if (!enabled) return task;
+        queued.incrementAndGet();
+        return () -> {
+            queued.decrementAndGet();
+            running.incrementAndGet();
+            long start = System.nanoTime();
+            try {
+                task.run();
+            } finally {
+                running.decrementAndGet();
+                double millis = (System.nanoTime() - start) / 1e6;
+                avgFetchMillis = avgFetchMillis == 0 ? millis : avgFetchMillis + EWMA_ALPHA * (millis - avgFetchMillis);
+            }
+        };
+    }
+
+    /**
+     * 按当前积压估算客户端应等待的秒数：排队的拉取由执行中的槽位逐批消化
+     */
+    public long retryAfterSeconds() {
+        DownloadConfigInfo.Admission cfg = downloadConfigInfo.getAdmission();
+        int concurrency = Math.max(1, running.get());
+        double waves = Math.ceil((double) queued.get() / concurrency);
+        long seconds = (long) Math.ceil(waves * avgFetchMillis / 1000);
+        return Math.max(cfg.getRetryAfterMin().toSeconds(), Math.min(cfg.getRetryAfterMax().toSeconds(), seconds));
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("enabled", enabled);
+        m.put("running", running.get());
+        m.put("queued", queued.get());
+        m.put("rejected", rejected.sum());
+        m.put("avgFetchMillis", Math.round(avgFetchMillis));
+        m.put("retryAfterSeconds", retryAfterSeconds());
+        return m;
+    }
+}
@@ -0,0 +1,167 @@
+package com.slice.reactminiospring.service;
+
+import com.slice.reactminiospring.config.DownloadConfigInfo;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * 回源拉取的优先级调度
+ * - 三条通道：交互（Range 未命中）> 整文件填充 > 预读/预热，各自保有一部分并发份额
+ * - 空闲槽位优先给份额未用满的通道，其余按优先级借用；预读不借用其他通道的份额
+ * - 防饿死：排队超过 max-wait 的任务不论通道优先级，拿到下一个空闲槽位
+ * - 低优先级通道中排队的拉取被交互请求加入时提升到交互通道
+ */
+@Slf4j
+@Component
+public class FetchScheduler {
+
+    public enum Lane {
+        INTERACTIVE, BULK, SPECULATIVE
+    }
+
+    @Resource
+    private DownloadConfigInfo downloadConfigInfo;
+
+    private Executor executor;
+    private int capacity;
+    private final Map<Lane, Integer> shares = new EnumMap<>(Lane.class);
+    private final Map<Lane, ArrayDeque<Task>> queues = new EnumMap<>(Lane.class);
+    private final Map<Lane, Integer> running = new EnumMap<>(Lane.class);
+    private final Map<String, Task> queuedByKey = new HashMap<>();
+    private int totalRunning;
+    private long promoted;
+    private long aged;
+
+    /**
+     * 由 DownloadManager 在创建线程池后调用，capacity 为同时执行的拉取数
+     */
+    public synchronized void start(Executor executor, int capacity) {
+        this.executor = executor;
+        this.capacity = Math.max(1, capacity);
+        DownloadConfigInfo.Lanes cfg = downloadConfigInfo.getLanes();
+        shares.put(Lane.INTERACTIVE, share(cfg.getInteractive()));
+        shares.put(Lane.BULK, share(cfg.getBulk()));
+        shares.put(Lane.SPECULATIVE, share(cfg.getSpeculative()));
+        for (Lane lane : Lane.values()) {
+            queues.put(lane, new ArrayDeque<>());
+            running.put(lane, 0);
+        }
+        log.info("FetchScheduler started. capacity={} shares={}", this.capacity, shares);
+    }
+
+    private int share(int percent) {
+        return Math.max(1, capacity * percent / 100);
+    }
+
+    /**
+     * 提交 key 的拉取任务
+     */
+    public synchronized void submit(String key, Lane lane, Runnable runnable) {
+        Task task = new Task(key, lane, runnable);
+        queues.get(lane).addLast(task);
+        queuedByKey.put(key, task);
+        dispatch();
+    }
+
+    /**
+     * 仍在排队的拉取被更高优先级的请求加入：移到对应通道的队尾
+     */
+    public synchronized void promote(String key, Lane lane) {
+        Task task = queuedByKey.get(key);
+        if (task == null || task.lane.ordinal() <= lane.ordinal()) return;
+        queues.get(task.lane).remove(task);
+        task.lane = lane;
+        queues.get(lane).addLast(task);
+        promoted++;
+        dispatch();
+    }
+
+    // 调用方持有 this 锁
+    private void dispatch() {
+        while (totalRunning < capacity) {
+            Lane lane = nextLane();
+            if (lane == null) return;
+            Task task = queues.get(lane).pollFirst();
+            queuedByKey.remove(task.key, task);
+            running.merge(lane, 1, Integer::sum);
+            totalRunning++;
+            executor.execute(() -> {
+                try {
+                    task.runnable.run();
+                } finally {
+                    finished(lane);
+                }
+            });
+        }
+    }
+
+    private synchronized void finished(Lane lane) {
+        running.merge(lane, -1, Integer::sum);
+        totalRunning--;
+        dispatch();
+    }
+
+    private Lane nextLane() {
+        long maxWait = downloadConfigInfo.getLanes().getMaxWait().toNanos();
+        long now = System.nanoTime();
+        // 1) 等待过久的任务先行，避免高优先级通道持续占满时低优先级通道饿死
+        Lane oldest = null;
+        long oldestAt = Long.MAX_VALUE;
+        for (Lane lane : Lane.values()) {
+            Task head = queues.get(lane).peekFirst();
+            if (head != null && now - head.enqueuedAt > maxWait && head.enqueuedAt < oldestAt) {
+                oldest = lane;
+                oldestAt = head.enqueuedAt;
+            }
+        }
+        if (oldest != null) {
+            aged++;
+            return oldest;
+        }
+        // 2) 份额未用满的通道，按优先级
+        for (Lane lane : Lane.values()) {
+            if (!queues.get(lane).isEmpty() && running.get(lane) < shares.get(lane)) return lane;
+        }
+        // 3) 借用空闲份额：预读只用自己的份额
+        for (Lane lane : Lane.values()) {
+            if (lane != Lane.SPECULATIVE && !queues.get(lane).isEmpty()) return lane;
+        }
+        return null;
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("capacity", capacity);
+        for (Lane lane : Lane.values()) {
+            Map<String, Object> l = new LinkedHashMap<>();
+            l.put("share", shares.get(lane));
+            l.put("running", running.get(lane));
+            l.put("queued", queues.get(lane).size());
+            m.put(lane.name().toLowerCase(), l);
+        }
+        m.put("promoted", promoted);
+        m.put("aged", aged);
+        return m;
+    }
+
+    private static final class Task {
+        final String key;
+        final Runnable runnable;
+        final long enqueuedAt = System.nanoTime();
+        Lane lane;
+
+        Task(String key, Lane lane, Runnable runnable) {
+            this.key = key;
+            this.lane = lane;
+            this.runnable = runnable;
+        }
+    }
+}
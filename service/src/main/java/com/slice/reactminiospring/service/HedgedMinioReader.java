@@ -0,0 +1,268 @@
+package com.slice.reactminiospring.service;
+
+import com.slice.reactminiospring.config.DownloadConfigInfo;
+import com.slice.reactminiospring.util.MinioUtil;
+import io.minio.GetObjectResponse;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+
+/**
+ * MinIO 区间读取的对冲请求与失败重试
+ * - 主请求超过阈值仍未返回响应头时再发一个相同的请求，取先返回者，另一个到达后直接关闭
+ * - 阈值取近期首字节延迟的百分位（滑动窗口），限制在 [min-delay, max-delay]
+ * - 请求失败时立即换一个请求（不再固定休眠），仍有请求在途时先等它
+ * - 对冲与重试共用一个预算：每个主请求积累 budget-percent% 个令牌，每次对冲/重试消耗一个
+ * - 每个在途请求占用一个 MinIO 许可（download.minio-concurrency）；对冲只在有空闲许可时发出
+ */
+@Slf4j
+@Component
+public class HedgedMinioReader {
+
+    // 延迟样本窗口，每积累 RECOMPUTE_EVERY 个样本重算一次百分位
+    private static final int WINDOW = 512;
+    private static final int RECOMPUTE_EVERY = 32;
+    // 预算令牌上限，即空闲后允许连续对冲/重试的次数
+    private static final double BUDGET_CAP = 20;
+    private static final long POLL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    @Resource
+    private MinioUtil minioUtil;
+
+    @Resource
+    private DownloadConfigInfo downloadConfigInfo;
+
+    private Semaphore permits;
+
+    private final long[] samples = new long[WINDOW];
+    private long sampleCount;
+    private volatile long hedgeDelayNanos;
+
+    private double budget = BUDGET_CAP;
+
+    private final LongAdder primaries = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder budgetExhausted = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        permits = new Semaphore(downloadConfigInfo.getMinioConcurrency(), true);
+        DownloadConfigInfo.Hedge cfg = downloadConfigInfo.getHedge();
+        hedgeDelayNanos = cfg.getMaxDelay().toNanos();
+        log.info("HedgedMinioReader initialized. enabled={} percentile={} budgetPercent={} maxAttempts={}",
+                cfg.getEnabled(), cfg.getPercentile(), cfg.getBudgetPercent(), cfg.getMaxAttempts());
+    }
+
+    /**
+     * 打开 [offset, offset+length) 的响应流，关闭流时释放 MinIO 许可
+     * 对象 ETag 不符（已被覆盖）时不重试，直接抛出；cancelled 为真时尽快放弃等待
+     */
+    public InputStream open(String object, long offset, long length, String etag, BooleanSupplier cancelled)
+            throws IOException {
+        DownloadConfigInfo.Hedge cfg = downloadConfigInfo.getHedge();
+        boolean hedging = Boolean.TRUE.equals(cfg.getEnabled());
+        int maxAttempts = Math.max(1, cfg.getMaxAttempts());
+        LinkedBlockingQueue<Attempt> completed = new LinkedBlockingQueue<>();
+        List<Attempt> attempts = new ArrayList<>(maxAttempts);
+
+        acquirePermit(object, cancelled);
+        primaries.increment();
+        earnBudget(cfg.getBudgetPercent());
+        attempts.add(launch(object, offset, length, etag, false, completed));
+        int running = 1;
+        long hedgeAt = System.nanoTime() + hedgeDelayNanos;
+        boolean hedged = !hedging;
+        Throwable lastError = null;
+        try {
+            for (;;) {
+                long wait = hedged ? POLL_NANOS : Math.min(POLL_NANOS, hedgeAt - System.nanoTime());
+                Attempt done = wait > 0 ? completed.poll(wait, TimeUnit.NANOSECONDS) : null;
+                if (cancelled.getAsBoolean()) throw new CancellationException("read cancelled: " + object);
+                if (done == null) {
+                    if (!hedged && System.nanoTime() - hedgeAt >= 0) {
+                        // 主请求迟迟没有响应：预算与许可都允许时发对冲请求
+                        hedged = true;
+                        if (attempts.size() < maxAttempts && spendBudget() && permits.tryAcquire()) {
+                            hedges.increment();
+                            attempts.add(launch(object, offset, length, etag, true, completed));
+                            running++;
+                        }
+                    }
+                    continue;
+                }
+                done.consumed = true;
+                running--;
+                if (done.response != null) {
+                    if (done.hedge) hedgeWins.increment();
+                    return new ResponseStream(done.response);
+                }
+                lastError = done.error;
+                permits.release();
+                if (MinioUtil.isPreconditionFailed(lastError)) throw asIOException(lastError);
+                log.warn("MinIO read attempt failed. object={} offset={}: {}", object, offset, lastError.getMessage());
+                if (running > 0) continue;
+                // 全部失败：预算允许时立即重试，重新计算对冲时机
+                if (attempts.size() >= maxAttempts || !spendBudget()) break;
+                acquirePermit(object, cancelled);
+                retries.increment();
+                attempts.add(launch(object, offset, length, etag, false, completed));
+                running = 1;
+                hedgeAt = System.nanoTime() + hedgeDelayNanos;
+                hedged = !hedging;
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted", ie);
+        } finally {
+            // 没被取走的请求（落败的对冲、已到达但未处理的响应）到达后关闭并归还许可
+            for (Attempt a : attempts) {
+                if (!a.consumed) a.discard();
+            }
+        }
+        failures.increment();
+        throw new IOException("MinIO read failed after " + attempts.size() + " attempts: " + object, lastError);
+    }
+
+    private Attempt launch(String object, long offset, long length, String etag, boolean hedge,
+                           LinkedBlockingQueue<Attempt> completed) {
+        Attempt attempt = new Attempt(hedge);
+        long start = System.nanoTime();
+        CompletableFuture<GetObjectResponse> future = minioUtil.getObjectAsync(object, offset, length, etag);
+        attempt.future = future;
+        future.whenComplete((resp, t) -> {
+            if (t == null) recordLatency(System.nanoTime() - start);
+            attempt.response = resp;
+            attempt.error = t == null ? null : MinioUtil.unwrap(t);
+            completed.offer(attempt);
+        });
+        return attempt;
+    }
+
+    // 排队等许可期间按 POLL_NANOS 检查取消：已取消的读取（孤儿拉取、过期预读）不再占着队列位置
+    private void acquirePermit(String object, BooleanSupplier cancelled) throws IOException {
+        try {
+            for (;;) {
+                if (cancelled.getAsBoolean()) throw new CancellationException("read cancelled: " + object);
+                if (permits.tryAcquire(POLL_NANOS, TimeUnit.NANOSECONDS)) return;
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted", ie);
+        }
+    }
+
+    // -------- 自适应阈值：近期成功请求首字节延迟的百分位 --------
+    private synchronized void recordLatency(long nanos) {
+        samples[(int) (sampleCount % WINDOW)] = nanos;
+        sampleCount++;
+        if (sampleCount % RECOMPUTE_EVERY != 0) return;
+        long[] sorted = Arrays.copyOf(samples, (int) Math.min(sampleCount, WINDOW));
+        Arrays.sort(sorted);
+        DownloadConfigInfo.Hedge cfg = downloadConfigInfo.getHedge();
+        int idx = (int) Math.min(sorted.length - 1, Math.ceil(cfg.getPercentile() / 100 * sorted.length) - 1);
+        long p = sorted[Math.max(0, idx)];
+        hedgeDelayNanos = Math.max(cfg.getMinDelay().toNanos(), Math.min(cfg.getMaxDelay().toNanos(), p));
+    }
+
+    // -------- 预算：对冲与重试不超过主请求数的 budget-percent% --------
+    private synchronized void earnBudget(int percent) {
+        budget = Math.min(BUDGET_CAP, budget + percent / 100.0);
+    }
+
+    private synchronized boolean spendBudget() {
+        if (budget < 1) {
+            budgetExhausted.increment();
+            return false;
+        }
+        budget -= 1;
+        return true;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("enabled", Boolean.TRUE.equals(downloadConfigInfo.getHedge().getEnabled()));
+        m.put("hedgeDelayMillis", TimeUnit.NANOSECONDS.toMillis(hedgeDelayNanos));
+        m.put("availablePermits", permits.availablePermits());
+        m.put("primaries", primaries.sum());
+        m.put("hedges", hedges.sum());
+        m.put("hedgeWins", hedgeWins.sum());
+        m.put("retries", retries.sum());
+        m.put("budgetExhausted", budgetExhausted.sum());
+        m.put("failures", failures.sum());
+        synchronized (this) {
+            m.put("budget", budget);
+        }
+        return m;
+    }
+
+    private static IOException asIOException(Throwable t) {
+        return t instanceof IOException ? (IOException) t : new IOException(t.getMessage(), t);
+    }
+
+    // 一次 GET 请求；consumed 只由 open 的调用线程读写
+    private final class Attempt {
+        final boolean hedge;
+        final AtomicBoolean discarded = new AtomicBoolean();
+        volatile CompletableFuture<GetObjectResponse> future;
+        volatile GetObjectResponse response;
+        volatile Throwable error;
+        boolean consumed;
+
+        Attempt(boolean hedge) {
+            this.hedge = hedge;
+        }
+
+        void discard() {
+            if (!discarded.compareAndSet(false, true)) return;
+            future.whenComplete((resp, t) -> {
+                if (resp != null) {
+                    try {
+                        resp.close();
+                    } catch (IOException ignore) {
+                    }
+                }
+                permits.release();
+            });
+        }
+    }
+
+    // 选中的响应：关闭时归还许可
+    private final class ResponseStream extends FilterInputStream {
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        ResponseStream(GetObjectResponse response) {
+            super(response);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed.compareAndSet(false, true)) return;
+            try {
+                super.close();
+            } finally {
+                permits.release();
+            }
+        }
+    }
+}
@@ -6,23 +6,24 @@ import com.slice.reactminiospring.entity.Files;
 import com.slice.reactminiospring.model.FileUploadInfo;
 import com.slice.reactminiospring.model.UploadUrlsVO;
 import jakarta.servlet.http.HttpServletRequest;
-import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * 文件表 服务类
  */
 public interface IFilesService extends IService<Files> {
 
-    R<FileUploadInfo> checkFileByMd5(String md5);
+    CompletableFuture<R<FileUploadInfo>> checkFileByMd5(String md5);
 
     R<UploadUrlsVO> initMultipartUpload(FileUploadInfo fileUploadInfo);
 
-    R<String> mergeMultipartUpload(String md5);
+    CompletableFuture<R<String>> mergeMultipartUpload(String md5);
 
-    ResponseEntity<byte[]> downloadMultipartFile(Long id, HttpServletRequest request, HttpServletResponse response) throws Exception;
+    CompletableFuture<ResponseEntity<StreamingResponseBody>> downloadMultipartFile(Long id, HttpServletRequest request);
 
     R<List<Files>> getFileList();
 }
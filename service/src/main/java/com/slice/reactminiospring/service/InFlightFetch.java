@@ -0,0 +1,361 @@
+package com.slice.reactminiospring.service;
+
+import com.slice.reactminiospring.util.BufferPool;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 一次进行中的 MinIO 拉取（一个块或一个整文件）
+ * - 拉取线程把字节追加写入 tmp 文件，每写一段就唤醒等待者
+ * - 首个请求方和所有合并进来的等待者边下边发，首字节延迟约等于 MinIO 延迟
+ * - 完成后 tmp 原子 rename 为正式缓存文件；已打开 tmp 的读者不受影响，读取端关闭前正式文件钉在磁盘缓存中不被淘汰
+ * - 每次拉取各用一个 tmp 文件名：被取消的旧拉取迟到的清理不会删掉同一 key 上接替它的新拉取正在写的 tmp
+ * - 读取方通过 retain/release 计数，全部断开后可由调用方放弃拉取（见 DownloadManager 孤儿拉取取消）
+ * - 非阻塞读取方（响应式下载）用 whenAvailable 登记位置，数据到达时由拉取线程完成其 future
+ */
+public class InFlightFetch {
+
+    private final String key;
+    private final long length;
+    private final File target;
+    private final File tmp;
+    private final DiskChunkStore store;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition progress = lock.newCondition();
+    private final CompletableFuture<File> completion = new CompletableFuture<>();
+    // whenAvailable 登记的等待，受 lock 保护；future 在锁外完成，回调不会持有 lock
+    private final List<Listener> listeners = new ArrayList<>();
+
+    private FileChannel writeChannel;
+    private volatile long written;
+    private volatile boolean started;
+    private volatile boolean done;
+    // 只由第一次 fail 设置，之后的 fail 不再清理 tmp
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    // 正在读取的请求数；-1 表示已因无人读取被放弃
+    private final AtomicInteger waiters = new AtomicInteger();
+    // 预热等需要完整落盘的拉取，不因无人读取而放弃
+    private volatile boolean pinned;
+    // 是否仍在磁盘预算中占位，完成或失败时归还一次
+    private final AtomicBoolean reserved = new AtomicBoolean();
+
+    public InFlightFetch(String key, long length, File target, DiskChunkStore store) {
+        this.key = key;
+        this.length = length;
+        this.target = target;
+        this.store = store;
+        this.tmp = new File(target.getAbsolutePath() + "." + UUID.randomUUID() + ".tmp");
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public File getTarget() {
+        return target;
+    }
+
+    public long getWritten() {
+        return written;
+    }
+
+    /**
+     * 已失败或被取消，拉取线程据此提前停止
+     */
+    public boolean isFailed() {
+        return failure.get() != null;
+    }
+
+    /**
+     * 登记一个读取方；拉取已被放弃时返回 false，调用方应重新发起拉取
+     */
+    public boolean retain() {
+        for (;;) {
+            int n = waiters.get();
+            if (n < 0) return false;
+            if (waiters.compareAndSet(n, n + 1)) return true;
+        }
+    }
+
+    /**
+     * 注销一个读取方，返回是否已没有读取方
+     */
+    public boolean release() {
+        return waiters.decrementAndGet() == 0;
+    }
+
+    /**
+     * 仍没有读取方时标记为放弃，之后的 retain 都会失败；有新读取方加入时返回 false
+     */
+    public boolean abandon() {
+        return waiters.compareAndSet(0, -1);
+    }
+
+    public int getWaiters() {
+        return Math.max(0, waiters.get());
+    }
+
+    public void pin() {
+        pinned = true;
+    }
+
+    public boolean isPinned() {
+        return pinned;
+    }
+
+    /**
+     * 完成时返回落盘后的缓存文件
+     */
+    public CompletableFuture<File> completion() {
+        return completion;
+    }
+
+    // -------- 写端（拉取线程） --------
+
+    public void start() throws IOException {
+        if (!target.getParentFile().exists()) target.getParentFile().mkdirs();
+        // 先按完整长度在磁盘预算中占位：超额时先淘汰旧文件再开始写，整文件拉取也不会越过 max-size
+        if (reserved.compareAndSet(false, true)) store.reserve(tmp, length);
+        FileChannel ch = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        lock.lock();
+        try {
+            writeChannel = ch;
+            started = true;
+            progress.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void append(byte[] buf, int off, int len) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(buf, off, len);
+        while (bb.hasRemaining()) writeChannel.write(bb);
+        List<Listener> ready;
+        lock.lock();
+        try {
+            written += len;
+            progress.signalAll();
+            ready = takeListeners(written);
+        } finally {
+            lock.unlock();
+        }
+        if (ready != null) {
+            for (Listener l : ready) l.future.complete(written);
+        }
+    }
+
+    public void complete() throws IOException {
+        writeChannel.close();
+        List<Listener> ready;
+        lock.lock();
+        try {
+            try {
+                Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            done = true;
+            progress.signalAll();
+            ready = takeListeners(Long.MAX_VALUE);
+        } finally {
+            lock.unlock();
+        }
+        // 正式文件随后由调用方 record 计入
+        releaseReservation();
+        if (ready != null) {
+            for (Listener l : ready) l.future.complete(length);
+        }
+        completion.complete(target);
+    }
+
+    /**
+     * 标记失败并清理 tmp，只有第一次调用生效：取消（放弃孤儿拉取、未使用的预读）之后拉取线程还会因取消再失败一次
+     */
+    public void fail(Throwable t) {
+        if (done || !failure.compareAndSet(null, t)) return;
+        if (writeChannel != null) {
+            try { writeChannel.close(); } catch (IOException ignore) {}
+        }
+        List<Listener> ready;
+        lock.lock();
+        try {
+            started = true;
+            progress.signalAll();
+            ready = takeListeners(Long.MAX_VALUE);
+        } finally {
+            lock.unlock();
+        }
+        if (ready != null) {
+            IOException e = new IOException("fetch failed: " + key, t);
+            for (Listener l : ready) l.future.completeExceptionally(e);
+        }
+        tmp.delete();
+        releaseReservation();
+        completion.completeExceptionally(t);
+    }
+
+    private void releaseReservation() {
+        if (reserved.compareAndSet(true, false)) store.unreserve(tmp, length);
+    }
+
+    // -------- 读端（请求线程） --------
+
+    /**
+     * 阻塞直到 [0, pos] 可读（即至少写入 pos+1 字节），返回当前可读的字节数
+     */
+    public long awaitAvailable(long pos, long deadlineNanos) throws IOException, InterruptedException, TimeoutException {
+        if (done) return length;
+        lock.lock();
+        try {
+            while (!done && failure.get() == null && written <= pos) {
+                long wait = deadlineNanos - System.nanoTime();
+                if (wait <= 0) throw new TimeoutException("waiting for " + key + " at " + pos);
+                progress.awaitNanos(wait);
+            }
+            if (failure.get() != null) throw new IOException("fetch failed: " + key, failure.get());
+            return done ? length : written;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * awaitAvailable 的非阻塞版本：[0, pos] 可读时以当前可读的字节数完成，拉取失败时异常完成
+     * future 在拉取线程上完成，后续阻塞操作应切换到其他线程
+     */
+    public CompletableFuture<Long> whenAvailable(long pos) {
+        if (done) return CompletableFuture.completedFuture(length);
+        lock.lock();
+        try {
+            if (failure.get() != null) return CompletableFuture.failedFuture(new IOException("fetch failed: " + key, failure.get()));
+            if (done || written > pos) return CompletableFuture.completedFuture(done ? length : written);
+            Listener l = new Listener(pos);
+            listeners.add(l);
+            return l.future;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 取出位置已可读的等待，调用方须持有 lock；没有时返回 null，避免每次追加都分配
+    private List<Listener> takeListeners(long available) {
+        if (listeners.isEmpty()) return null;
+        List<Listener> ready = null;
+        for (Iterator<Listener> it = listeners.iterator(); it.hasNext(); ) {
+            Listener l = it.next();
+            if (l.pos >= available) continue;
+            if (ready == null) ready = new ArrayList<>();
+            ready.add(l);
+            it.remove();
+        }
+        return ready;
+    }
+
+    /**
+     * 把 [offset, offset+len) 写到 out，数据未到达时等待拉取线程
+     */
+    public void streamTo(OutputStream out, long offset, long len, long deadlineNanos)
+            throws IOException, InterruptedException, TimeoutException {
+        awaitAvailable(offset, deadlineNanos);
+        byte[] buf = BufferPool.acquire();
+        try (Reader reader = openForRead()) {
+            FileChannel ch = reader.channel();
+            long pos = offset;
+            long end = offset + len;
+            while (pos < end) {
+                long available = Math.min(awaitAvailable(pos, deadlineNanos), end);
+                while (pos < available) {
+                    int n = (int) Math.min(buf.length, available - pos);
+                    int r = ch.read(ByteBuffer.wrap(buf, 0, n), pos);
+                    if (r < 0) throw new IOException("unexpected EOF in " + key + " at " + pos);
+                    out.write(buf, 0, r);
+                    pos += r;
+                }
+            }
+            out.flush();
+        } finally {
+            BufferPool.release(buf);
+        }
+    }
+
+    /**
+     * 打开可读的文件（tmp 或已完成的正式文件）；拉取尚未开始时阻塞，whenAvailable 完成后调用不会阻塞
+     */
+    public Reader openForRead() throws IOException, InterruptedException {
+        lock.lock();
+        try {
+            while (!started) progress.await();
+            if (failure.get() != null) throw new IOException("fetch failed: " + key, failure.get());
+            // tmp 完成后即成为正式文件，读取期间一律钉住正式文件
+            store.pin(target);
+            try {
+                // 与 complete() 中的 rename 互斥：要么打开 tmp，要么打开已完成的正式文件
+                return new Reader(FileChannel.open((done ? target : tmp).toPath(), StandardOpenOption.READ));
+            } catch (IOException | RuntimeException e) {
+                store.unpin(target);
+                throw e;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 读取端：关闭时释放对正式文件的钉住
+     */
+    public final class Reader implements Closeable {
+        private final FileChannel channel;
+
+        private Reader(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        public FileChannel channel() {
+            return channel;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                channel.close();
+            } finally {
+                store.unpin(target);
+            }
+        }
+    }
+
+    private static final class Listener {
+        final long pos;
+        final CompletableFuture<Long> future = new CompletableFuture<>();
+
+        Listener(long pos) {
+            this.pos = pos;
+        }
+    }
+}
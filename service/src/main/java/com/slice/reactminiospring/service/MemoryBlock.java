@@ -0,0 +1,107 @@
+package com.slice.reactminiospring.service;
+
+import com.slice.reactminiospring.util.BufferPool;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * 堆内块缓存（chunkCache）中的一个块：原始字节，或按 64KB 帧分别 LZ4 压缩的字节
+ * - 帧之间相互独立，读取区间只解压覆盖到的帧，解压目标是 BufferPool 的缓冲，不按块分配
+ * - 先压缩一个样本帧探测可压缩性，压缩率达不到 min-ratio 的块（已压缩的包、图片等）直接存原始字节
+ */
+public final class MemoryBlock {
+
+    private static final int FRAME = BufferPool.BUFFER_SIZE;
+    private static final LZ4Factory LZ4 = LZ4Factory.fastestInstance();
+
+    private final byte[] data;
+    private final int rawLength;
+    // 压缩时每帧在 data 中的起始位置，最后一个元素为 data 的有效长度；原始块为 null
+    private final int[] frames;
+
+    private MemoryBlock(byte[] data, int rawLength, int[] frames) {
+        this.data = data;
+        this.rawLength = rawLength;
+        this.frames = frames;
+    }
+
+    public static MemoryBlock raw(byte[] data) {
+        return new MemoryBlock(data, data.length, null);
+    }
+
+    /**
+     * 按可压缩性决定存储形式：压缩后大小不超过原始大小 × minRatio 时存压缩帧
+     */
+    public static MemoryBlock of(byte[] raw, double minRatio) {
+        int frameCount = (raw.length + FRAME - 1) / FRAME;
+        if (frameCount == 0) return raw(raw);
+        LZ4Compressor compressor = LZ4.fastCompressor();
+
+        // 探测：压缩中间的一帧，文件头常是高度可压缩的元数据，不具代表性
+        int probe = frameCount / 2;
+        int probeLen = frameLength(probe, raw.length);
+        byte[] scratch = new byte[compressor.maxCompressedLength(FRAME)];
+        int probeOut = compressor.compress(raw, probe * FRAME, probeLen, scratch, 0, scratch.length);
+        if (probeOut > probeLen * minRatio) return raw(raw);
+
+        byte[] out = new byte[compressor.maxCompressedLength(raw.length) + frameCount * 16];
+        int[] frames = new int[frameCount + 1];
+        int pos = 0;
+        for (int i = 0; i < frameCount; i++) {
+            frames[i] = pos;
+            pos += compressor.compress(raw, i * FRAME, frameLength(i, raw.length), out, pos, out.length - pos);
+        }
+        frames[frameCount] = pos;
+        if (pos > raw.length * minRatio) return raw(raw);
+        return new MemoryBlock(Arrays.copyOf(out, pos), raw.length, frames);
+    }
+
+    public boolean isCompressed() {
+        return frames != null;
+    }
+
+    public int rawLength() {
+        return rawLength;
+    }
+
+    /**
+     * 在堆上占用的字节数，用作 chunkCache 的权重
+     */
+    public int weight() {
+        return data.length + (frames == null ? 0 : frames.length * 4);
+    }
+
+    /**
+     * 写出原始内容中 [offset, offset+length) 的部分
+     */
+    public void writeTo(OutputStream out, long offset, long length) throws IOException {
+        if (frames == null) {
+            out.write(data, (int) offset, (int) length);
+            return;
+        }
+        LZ4FastDecompressor decompressor = LZ4.fastDecompressor();
+        byte[] buf = BufferPool.acquire();
+        try {
+            long end = offset + length;
+            for (int i = (int) (offset / FRAME); i * (long) FRAME < end; i++) {
+                int frameLen = frameLength(i, rawLength);
+                decompressor.decompress(data, frames[i], buf, 0, frameLen);
+                long frameStart = (long) i * FRAME;
+                int from = (int) Math.max(0, offset - frameStart);
+                int to = (int) Math.min(frameLen, end - frameStart);
+                out.write(buf, from, to - from);
+            }
+        } finally {
+            BufferPool.release(buf);
+        }
+    }
+
+    private static int frameLength(int frame, int rawLength) {
+        return Math.min(FRAME, rawLength - frame * FRAME);
+    }
+}
@@ -0,0 +1,267 @@
+package com.slice.reactminiospring.service;
+
+import com.slice.reactminiospring.config.DownloadConfigInfo;
+import com.slice.reactminiospring.util.BufferPool;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.catalina.connector.CoyoteOutputStream;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 堆外热块缓存
+ * - 预先分配若干段 direct ByteBuffer 或内存映射的 slab 文件，按 blockSize 切成固定槽位
+ * - 自带 LRU 淘汰；正在被读取（已 acquire 未 close）的槽位不会被复用
+ * - 数据常驻堆外，G1 不需要扫描/复制，堆可以保持很小
+ */
+@Slf4j
+@Component
+public class OffHeapChunkStore {
+
+    @Resource
+    private DownloadConfigInfo downloadConfigInfo;
+
+    private boolean enabled;
+    private int slotSize;
+    private int slotsPerSegment;
+    private ByteBuffer[] segments;
+    private final Deque<Integer> freeSlots = new ArrayDeque<>();
+    // accessOrder = true：迭代顺序即 LRU 顺序
+    private final LinkedHashMap<String, Slot> index = new LinkedHashMap<>(1024, 0.75f, true);
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long rejected;
+
+    @PostConstruct
+    public void init() throws IOException {
+        DownloadConfigInfo.OffHeap cfg = downloadConfigInfo.getOffHeap();
+        enabled = Boolean.TRUE.equals(cfg.getEnabled());
+        if (!enabled) return;
+
+        slotSize = (int) downloadConfigInfo.getBlockSize().toBytes();
+        slotsPerSegment = (int) Math.max(1, cfg.getSegmentSize().toBytes() / slotSize);
+        long totalSlots = Math.max(1, cfg.getCapacity().toBytes() / slotSize);
+        int segmentCount = (int) ((totalSlots + slotsPerSegment - 1) / slotsPerSegment);
+        segments = new ByteBuffer[segmentCount];
+
+        FileChannel slabChannel = null;
+        if (cfg.getMode() == DownloadConfigInfo.OffHeapMode.MAPPED) {
+            File slab = new File(cfg.getSlabFile());
+            if (slab.getParentFile() != null) slab.getParentFile().mkdirs();
+            slabChannel = new RandomAccessFile(slab, "rw").getChannel();
+        }
+        try {
+            long remaining = totalSlots;
+            for (int i = 0; i < segmentCount; i++) {
+                int slots = (int) Math.min(slotsPerSegment, remaining);
+                long bytes = (long) slots * slotSize;
+                if (slabChannel != null) {
+                    // 映射建立后即使关闭 channel 也依然有效
+                    MappedByteBuffer mapped = slabChannel.map(FileChannel.MapMode.READ_WRITE, (long) i * slotsPerSegment * slotSize, bytes);
+                    segments[i] = mapped;
+                } else {
+                    segments[i] = ByteBuffer.allocateDirect((int) bytes);
+                }
+                for (int s = 0; s < slots; s++) freeSlots.add(i * slotsPerSegment + s);
+                remaining -= slots;
+            }
+        } finally {
+            if (slabChannel != null) slabChannel.close();
+        }
+        log.info("OffHeapChunkStore initialized. mode={} capacity={} slots={} slotSize={}",
+                cfg.getMode(), cfg.getCapacity(), totalSlots, slotSize);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public synchronized boolean contains(String key) {
+        // containsKey 不改变 LRU 顺序
+        return enabled && index.containsKey(key);
+    }
+
+    /**
+     * 写入一个块；超过槽位大小或所有槽位都被占用（读取中）时放弃
+     */
+    public boolean put(String key, byte[] data) {
+        if (!enabled) return false;
+        if (data.length > slotSize) {
+            synchronized (this) { rejected++; }
+            return false;
+        }
+        int slotNo;
+        synchronized (this) {
+            if (index.containsKey(key)) return true;
+            slotNo = allocateSlot();
+            if (slotNo < 0) {
+                rejected++;
+                return false;
+            }
+        }
+        // 复制在锁外进行，槽位尚未登记到 index，不会被读到
+        slotBuffer(slotNo, data.length).put(data);
+        synchronized (this) {
+            if (index.containsKey(key)) {
+                freeSlots.push(slotNo);
+                return true;
+            }
+            index.put(key, new Slot(slotNo, data.length));
+        }
+        return true;
+    }
+
+    /**
+     * 读取一个块，返回的 Lease 关闭前槽位不会被复用；未命中返回 null
+     */
+    public Lease acquire(String key) {
+        if (!enabled) return null;
+        Slot slot;
+        synchronized (this) {
+            slot = index.get(key);
+            if (slot == null) {
+                misses++;
+                return null;
+            }
+            hits++;
+            slot.refs++;
+        }
+        return new Lease(slot, slotBuffer(slot.slotNo, slot.length).asReadOnlyBuffer());
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("enabled", enabled);
+        if (!enabled) return m;
+        m.put("mode", downloadConfigInfo.getOffHeap().getMode());
+        m.put("capacity", (long) segmentsSlotCount() * slotSize);
+        m.put("entries", index.size());
+        m.put("usedBytes", index.values().stream().mapToLong(s -> s.length).sum());
+        m.put("freeSlots", freeSlots.size());
+        m.put("hitCount", hits);
+        m.put("missCount", misses);
+        m.put("evictionCount", evictions);
+        m.put("rejectedCount", rejected);
+        return m;
+    }
+
+    // 调用方持有 this 锁
+    private int allocateSlot() {
+        if (!freeSlots.isEmpty()) return freeSlots.pop();
+        Iterator<Map.Entry<String, Slot>> it = index.entrySet().iterator();
+        while (it.hasNext()) {
+            Slot victim = it.next().getValue();
+            it.remove();
+            evictions++;
+            victim.evicted = true;
+            if (victim.refs == 0) return victim.slotNo;
+            // 仍在被读取：槽位等最后一个 Lease 关闭时归还
+        }
+        return -1;
+    }
+
+    private synchronized void release(Slot slot) {
+        slot.refs--;
+        if (slot.evicted && slot.refs == 0) freeSlots.push(slot.slotNo);
+    }
+
+    private ByteBuffer slotBuffer(int slotNo, int length) {
+        ByteBuffer segment = segments[slotNo / slotsPerSegment];
+        return segment.slice((slotNo % slotsPerSegment) * slotSize, length);
+    }
+
+    private int segmentsSlotCount() {
+        int count = 0;
+        for (ByteBuffer segment : segments) count += segment.capacity() / slotSize;
+        return count;
+    }
+
+    private static final class Slot {
+        final int slotNo;
+        final int length;
+        int refs;
+        boolean evicted;
+
+        Slot(int slotNo, int length) {
+            this.slotNo = slotNo;
+            this.length = length;
+        }
+    }
+
+    /**
+     * 对一个槽位的只读引用
+     */
+    public final class Lease implements AutoCloseable {
+        private final Slot slot;
+        private final ByteBuffer buffer;
+        private boolean closed;
+
+        private Lease(Slot slot, ByteBuffer buffer) {
+            this.slot = slot;
+            this.buffer = buffer;
+        }
+
+        public int length() {
+            return slot.length;
+        }
+
+        /**
+         * 块中 [offset, offset+length) 的只读视图，只在租约关闭前有效
+         */
+        public ByteBuffer view(long offset, long length) {
+            return buffer.slice((int) offset, (int) length).asReadOnlyBuffer();
+        }
+
+        /**
+         * 写出块中 [offset, offset+length) 的部分。Tomcat 的输出流可以直接接收 ByteBuffer，
+         * 字节从堆外拷贝到连接器缓冲区，不经过 Java 堆；其他输出流回退到小缓冲复制
+         */
+        public void writeTo(OutputStream out, long offset, long length) throws IOException {
+            ByteBuffer view = buffer.slice((int) offset, (int) length);
+            if (out instanceof CoyoteOutputStream) {
+                ((CoyoteOutputStream) out).write(view);
+                return;
+            }
+            // 开启带宽调度时响应流外面包着限速流：按相同计量直接写出堆外数据
+            if (out instanceof BandwidthScheduler.ThrottledStream && ((BandwidthScheduler.ThrottledStream) out).acceptsByteBuffer()) {
+                ((BandwidthScheduler.ThrottledStream) out).write(view);
+                return;
+            }
+            byte[] buf = BufferPool.acquire();
+            try {
+                while (view.hasRemaining()) {
+                    int n = Math.min(buf.length, view.remaining());
+                    view.get(buf, 0, n);
+                    out.write(buf, 0, n);
+                }
+            } finally {
+                BufferPool.release(buf);
+            }
+        }
+
+        // 响应式写出与 release(plan) 可能在不同线程关闭同一租约，与槽位计数一样在存储锁内判重
+        @Override
+        public void close() {
+            synchronized (OffHeapChunkStore.this) {
+                if (closed) return;
+                closed = true;
+                release(slot);
+            }
+        }
+    }
+}
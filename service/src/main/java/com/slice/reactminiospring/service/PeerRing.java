@@ -0,0 +1,144 @@
+package com.slice.reactminiospring.service;
+
+import com.slice.reactminiospring.config.DownloadConfigInfo;
+import com.slice.reactminiospring.util.RedisUtil;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 节点间共享缓存的一致性哈希环
+ * - 成员来自静态配置 download.cluster.peers，或各节点定期注册到 Redis 有序集合（score 为心跳时间）
+ * - 每个块 key 归属环上顺时针第一个虚拟节点对应的成员，成员增减只影响相邻区段的块
+ */
+@Slf4j
+@Component
+public class PeerRing {
+
+    private static final String MEMBERS_KEY = "download:nodes";
+    private static final long HEARTBEAT_MS = 10_000L;
+    // 超过 3 个心跳周期未续约的节点视为下线
+    private static final long MEMBER_EXPIRE_MS = 3 * HEARTBEAT_MS;
+
+    @Resource
+    private DownloadConfigInfo downloadConfigInfo;
+    @Resource
+    private ClusterFetchCoordinator clusterFetchCoordinator;
+    @Resource
+    private RedisUtil redisUtil;
+
+    private boolean enabled;
+    private boolean staticMembers;
+    private volatile TreeMap<Long, String> ring = new TreeMap<>();
+    private volatile Set<String> members = new TreeSet<>();
+
+    @PostConstruct
+    public void init() {
+        DownloadConfigInfo.Cluster cfg = downloadConfigInfo.getCluster();
+        enabled = clusterFetchCoordinator.isEnabled() && Boolean.TRUE.equals(cfg.getPeerCache());
+        if (!enabled) return;
+        staticMembers = !cfg.getPeers().isEmpty();
+        if (staticMembers) {
+            rebuild(new TreeSet<>(cfg.getPeers()));
+        } else {
+            refresh();
+        }
+        log.info("PeerRing initialized. membership={} members={}", staticMembers ? "static" : "redis", members);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (enabled && !staticMembers) {
+            redisUtil.zRemove(MEMBERS_KEY, clusterFetchCoordinator.getNodeUrl());
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * key 的归属节点；环为空时返回 null
+     */
+    public String ownerOf(String key) {
+        TreeMap<Long, String> current = ring;
+        if (current.isEmpty()) return null;
+        SortedMap<Long, String> tail = current.tailMap(hash(key));
+        return tail.isEmpty() ? current.firstEntry().getValue() : tail.get(tail.firstKey());
+    }
+
+    /**
+     * key 是否归属本节点（未开启时所有 key 都视为本地）
+     */
+    public boolean isLocal(String key) {
+        if (!enabled) return true;
+        String owner = ownerOf(key);
+        return owner == null || owner.equals(clusterFetchCoordinator.getNodeUrl());
+    }
+
+    /**
+     * 是否接受 caller 对 key 的读穿（由本节点回源并缓存）：caller 须是环上的其他成员，且 key 归属本节点
+     */
+    public boolean acceptsReadThrough(String caller, String key) {
+        if (!enabled || caller == null || caller.equals(clusterFetchCoordinator.getNodeUrl())) return false;
+        return members.contains(caller) && isLocal(key);
+    }
+
+    public Set<String> getMembers() {
+        return members;
+    }
+
+    // -------- Redis 注册：心跳续约并拉取存活成员 --------
+    @Scheduled(fixedDelay = HEARTBEAT_MS, timeUnit = TimeUnit.MILLISECONDS)
+    public void refresh() {
+        if (!enabled || staticMembers) return;
+        long now = System.currentTimeMillis();
+        try {
+            redisUtil.zSet(MEMBERS_KEY, clusterFetchCoordinator.getNodeUrl(), now);
+            redisUtil.zRemoveRangeByScore(MEMBERS_KEY, 0, now - MEMBER_EXPIRE_MS);
+            Set<String> alive = new TreeSet<>();
+            for (Object m : redisUtil.zRangeByScore(MEMBERS_KEY, now - MEMBER_EXPIRE_MS, Double.MAX_VALUE)) {
+                alive.add(String.valueOf(m));
+            }
+            if (!alive.equals(members)) {
+                log.info("peer ring membership changed: {} -> {}", members, alive);
+                rebuild(alive);
+            }
+        } catch (Exception e) {
+            // Redis 不可用时保留上一次的成员列表
+            log.warn("peer ring refresh failed: {}", e.getMessage());
+        }
+    }
+
+    private void rebuild(Set<String> newMembers) {
+        int virtualNodes = downloadConfigInfo.getCluster().getVirtualNodes();
+        TreeMap<Long, String> newRing = new TreeMap<>();
+        for (String member : newMembers) {
+            for (int i = 0; i < virtualNodes; i++) newRing.put(hash(member + "#" + i), member);
+        }
+        ring = newRing;
+        members = newMembers;
+    }
+
+    private static long hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            return ByteBuffer.wrap(digest).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -13,6 +13,7 @@ import jakarta.annotation.Resource;
 import org.springframework.stereotype.Service;
 
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.time.LocalDateTime;
 import java.util.Vector;
@@ -54,8 +55,17 @@ public class SftpUploadGateway {
 
                 try (InputStream input = sftp.get(remotePath)) {
 
-                    // 1️⃣ 读取成字节数组（可重复使用）
-                    byte[] bytes = input.readAllBytes();
+                    // 1️⃣ 读取成字节数组（可重复使用）；大小已知时一次分配，不经过 readAllBytes 的分段缓冲再合并
+                    byte[] bytes;
+                    if (fileSize > 0 && fileSize <= Integer.MAX_VALUE - 8) {
+                        bytes = new byte[(int) fileSize];
+                        int n = input.readNBytes(bytes, 0, bytes.length);
+                        if (n != fileSize || input.read() != -1) {
+                            throw new IOException("文件在拉取期间发生变化: " + remotePath);
+                        }
+                    } else {
+                        bytes = input.readAllBytes();
+                    }
 
                     // 2️⃣ 计算 MD5
                     String md5 = DigestUtil.md5Hex(bytes);
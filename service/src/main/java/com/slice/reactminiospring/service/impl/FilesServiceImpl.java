@@ -6,32 +6,36 @@ import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.slice.reactminiospring.common.R;
+import com.slice.reactminiospring.config.DownloadConfigInfo;
 import com.slice.reactminiospring.config.MinioConfigInfo;
 import com.slice.reactminiospring.entity.Files;
 import com.slice.reactminiospring.enums.HttpCodeEnum;
 import com.slice.reactminiospring.mapper.FilesMapper;
 import com.slice.reactminiospring.model.FileUploadInfo;
 import com.slice.reactminiospring.model.UploadUrlsVO;
+import com.slice.reactminiospring.service.DownloadManager;
 import com.slice.reactminiospring.service.IFilesService;
 import com.slice.reactminiospring.util.BeanCopyUtils;
+import com.slice.reactminiospring.util.BufferPool;
 import com.slice.reactminiospring.util.MinioUtil;
 import com.slice.reactminiospring.util.RedisUtil;
 import io.minio.GetObjectResponse;
-import io.minio.StatObjectResponse;
 import jakarta.annotation.Resource;
 import jakarta.servlet.http.HttpServletRequest;
-import jakarta.servlet.http.HttpServletResponse;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.catalina.connector.ClientAbortException;
 import org.springframework.core.env.Environment;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.io.BufferedOutputStream;
-import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import com.slice.reactminiospring.util.MqttPublisher;
 
@@ -41,7 +45,6 @@ import com.slice.reactminiospring.util.MqttPublisher;
 @Slf4j
 @Service
 public class FilesServiceImpl extends ServiceImpl<FilesMapper, Files> implements IFilesService {
-    private static final Integer BUFFER_SIZE = 1024 * 64; // 64KB
 
     @Resource
     private RedisUtil redisUtil;
@@ -54,28 +57,33 @@ public class FilesServiceImpl extends ServiceImpl<FilesMapper, Files> implements
     @Resource
     private MqttPublisher mqttPublisher;
     @Resource
+    private DownloadManager downloadManager;
+    @Resource
+    private DownloadConfigInfo downloadConfigInfo;
+    @Resource
     private Environment env;
+    @Resource(name = "downloadStreamExecutor")
+    private AsyncTaskExecutor asyncExecutor;
 
 
 
     @Override
-    public R<FileUploadInfo> checkFileByMd5(String md5) {
+    public CompletableFuture<R<FileUploadInfo>> checkFileByMd5(String md5) {
         log.info("查询md5: <{}> 在redis是否存在", md5);
         FileUploadInfo fileUploadInfo = (FileUploadInfo)redisUtil.get(md5);
         if (fileUploadInfo != null) {
-            List<Integer> listParts = minioUtil.getListParts(fileUploadInfo.getObject(), fileUploadInfo.getUploadId());
-            fileUploadInfo.setListParts(listParts);
-            return R.http(HttpCodeEnum.UPLOADING, fileUploadInfo);
+            return minioUtil.getListPartsAsync(fileUploadInfo.getObject(), fileUploadInfo.getUploadId())
+                    .thenApply(listParts -> R.http(HttpCodeEnum.UPLOADING, fileUploadInfo.setListParts(listParts)));
         }
         log.info("redis中不存在md5: <{}> 查询mysql是否存在", md5);
         Files file = filesMapper.selectOne(new LambdaQueryWrapper<Files>().eq(Files::getMd5, md5));
         if (file != null) {
             log.info("mysql中存在md5: <{}> 的文件 该文件已上传至minio 秒传直接过", md5);
             FileUploadInfo dbFileInfo = BeanCopyUtils.copyBean(file, FileUploadInfo.class);
-            return R.http(HttpCodeEnum.UPLOAD_SUCCESS, dbFileInfo);
+            return CompletableFuture.completedFuture(R.http(HttpCodeEnum.UPLOAD_SUCCESS, dbFileInfo));
         }
 
-        return R.http(HttpCodeEnum.NOT_UPLOADED, null);
+        return CompletableFuture.completedFuture(R.http(HttpCodeEnum.NOT_UPLOADED, null));
     }
 
     @Override
@@ -115,7 +123,7 @@ public class FilesServiceImpl extends ServiceImpl<FilesMapper, Files> implements
     }
 
     @Override
-    public R<String> mergeMultipartUpload(String md5) {
+    public CompletableFuture<R<String>> mergeMultipartUpload(String md5) {
         FileUploadInfo redisFileUploadInfo = (FileUploadInfo)redisUtil.get(md5);
 
         String url = StrUtil.format("{}/{}/{}", minioConfigInfo.getEndpoint(), minioConfigInfo.getBucket(), redisFileUploadInfo.getObject());
@@ -129,11 +137,22 @@ public class FilesServiceImpl extends ServiceImpl<FilesMapper, Files> implements
         String port = env.getProperty("server.port", "8080");
         String newUrl = "http://" + host + ":" + port+"/files/downloadForWindows/";
         // 分片为 1 ，不需要合并，否则合并后看返回的是 true 还是 false
-        boolean isSuccess = chunkCount == 1 || minioUtil.mergeMultipartUpload(redisFileUploadInfo.getObject(), redisFileUploadInfo.getUploadId());
-        if (isSuccess) {
-            filesMapper.insert(files);
-            redisUtil.del(md5);
+        CompletableFuture<Boolean> merged = chunkCount == 1
+                ? CompletableFuture.completedFuture(true)
+                : minioUtil.mergeMultipartUploadAsync(redisFileUploadInfo.getObject(), redisFileUploadInfo.getUploadId());
+        // 合并请求返回后再入库，等待期间不占用请求线程；入库、Redis、预热与广播在 MVC 异步线程上执行，不占用 OkHttp 回调线程
+        return merged.thenApplyAsync(isSuccess -> isSuccess ? completeUpload(md5, files, url, newUrl)
+                : R.http(HttpCodeEnum.UPLOAD_FILE_FAILED, null), asyncExecutor);
+    }
+
+    // 合并成功：入库、清理断点续传记录，预热后广播
+    private R<String> completeUpload(String md5, Files files, String url, String newUrl) {
+        filesMapper.insert(files);
+        redisUtil.del(md5);
 
+        // 先预热块缓存再广播，避免所有客户端同时冷启动打到 MinIO
+        prewarmBeforeBroadcast(files.getId()).whenComplete((v, t) -> {
+            if (t != null) log.warn("文件 <{}> 预热失败，直接广播: {}", files.getId(), t.getMessage());
             String message = String.format(
                     "{\"fileName\": \"%s\", \"url\": \"%s\", \"fileSize\": %d, \"timestamp\": \"%s\"}",
                     files.getOriginFileName(),
@@ -142,21 +161,46 @@ public class FilesServiceImpl extends ServiceImpl<FilesMapper, Files> implements
                     LocalDateTime.now().toString()
             );
             mqttPublisher.publish("FilesDownload", message);
+        });
 
-            return R.http(HttpCodeEnum.SUCCESS, url);
+        return R.http(HttpCodeEnum.SUCCESS, url);
+    }
+
+    /**
+     * 按 download.prewarm.mode 返回广播前需要等待的 future
+     */
+    private CompletableFuture<Void> prewarmBeforeBroadcast(Long fileId) {
+        DownloadConfigInfo.Prewarm prewarm = downloadConfigInfo.getPrewarm();
+        switch (prewarm.getMode()) {
+            case AFTER_WARMUP:
+                return downloadManager.prewarm(fileId);
+            case TIME_LIMIT:
+                // 超时后照常广播，预热在后台继续进行
+                return downloadManager.prewarm(fileId)
+                        .completeOnTimeout(null, prewarm.getTimeout().toMillis(), TimeUnit.MILLISECONDS);
+            default:
+                return CompletableFuture.completedFuture(null);
         }
-        return R.http(HttpCodeEnum.UPLOAD_FILE_FAILED, null);
     }
 
     @Override
-    public ResponseEntity<byte[]> downloadMultipartFile(Long id, HttpServletRequest request, HttpServletResponse response) throws IOException {
+    public CompletableFuture<ResponseEntity<StreamingResponseBody>> downloadMultipartFile(Long id, HttpServletRequest request) {
+        // 不带 Range 的整文件请求：客户端接受 gzip 且压缩副本已缓存时，按压缩表示发送
+        if (request.getHeader("Range") == null) {
+            return downloadManager.streamEncoded(id, request).thenCompose(encoded -> encoded != null
+                    ? CompletableFuture.completedFuture(encoded) : downloadObject(id, request));
+        }
+        return downloadObject(id, request);
+    }
+
+    private CompletableFuture<ResponseEntity<StreamingResponseBody>> downloadObject(Long id, HttpServletRequest request) {
         // redis 缓存当前文件信息，避免分片下载时频繁查库
         Files file = null;
         Files redisFile = (Files)redisUtil.get(String.valueOf(id));
         if (redisFile == null) {
             Files dbFile = filesMapper.selectById(id);
             if (dbFile == null) {
-                return null;
+                return CompletableFuture.completedFuture(ResponseEntity.notFound().build());
             } else {
                 file = dbFile;
                 redisUtil.set(String.valueOf(id), file, 1, TimeUnit.DAYS);
@@ -167,86 +211,84 @@ public class FilesServiceImpl extends ServiceImpl<FilesMapper, Files> implements
 
         String range = request.getHeader("Range");
         String fileName = file.getOriginFileName();
-        log.info("下载文件的 object <{}>", file.getObject());
-        // 获取 bucket 桶中的文件元信息，获取不到会抛出异常
-        StatObjectResponse objectResponse = minioUtil.statObject(file.getObject());
-        long startByte = 0; // 开始下载位置
-        long fileSize = objectResponse.size();
-        long endByte = fileSize - 1; // 结束下载位置
-        log.info("文件总长度：{}，当前 range：{}", fileSize, range);
+        String object = file.getObject();
+        log.info("下载文件的 object <{}>", object);
+        // 获取 bucket 桶中的文件元信息，获取不到时 future 以异常完成，由全局异常处理返回错误
+        return minioUtil.statObjectAsync(object).thenCompose(objectResponse -> {
+            long startByte = 0; // 开始下载位置
+            long fileSize = objectResponse.size();
+            long endByte = fileSize - 1; // 结束下载位置
+            log.info("文件总长度：{}，当前 range：{}", fileSize, range);
 
-        BufferedOutputStream os = null; // buffer 写入流
-        GetObjectResponse stream = null; // minio 文件流
-
-        // 存在 range，需要根据前端下载长度进行下载，即分段下载
-        // 例如：range=bytes=0-52428800
-        if (range != null && range.contains("bytes=") && range.contains("-")) {
-            range = range.substring(range.lastIndexOf("=") + 1).trim(); // 0-52428800
-            String[] ranges = range.split("-");
-            // 判断range的类型
-            if (ranges.length == 1) {
-                // 类型一：bytes=-2343 后端转换为 0-2343
-                if (range.startsWith("-")) endByte = Long.parseLong(ranges[0]);
-                // 类型二：bytes=2343- 后端转换为 2343-最后
-                if (range.endsWith("-")) startByte = Long.parseLong(ranges[0]);
-            } else if (ranges.length == 2) { // 类型三：bytes=22-2343
-                startByte = Long.parseLong(ranges[0]);
-                endByte = Long.parseLong(ranges[1]);
+            // 存在 range，需要根据前端下载长度进行下载，即分段下载
+            // 例如：range=bytes=0-52428800
+            if (range != null && range.contains("bytes=") && range.contains("-")) {
+                String spec = range.substring(range.lastIndexOf("=") + 1).trim(); // 0-52428800
+                String[] ranges = spec.split("-");
+                // 判断range的类型
+                if (ranges.length == 1) {
+                    // 类型一：bytes=-2343 后端转换为 0-2343
+                    if (spec.startsWith("-")) endByte = Long.parseLong(ranges[0]);
+                    // 类型二：bytes=2343- 后端转换为 2343-最后
+                    if (spec.endsWith("-")) startByte = Long.parseLong(ranges[0]);
+                } else if (ranges.length == 2) { // 类型三：bytes=22-2343
+                    startByte = Long.parseLong(ranges[0]);
+                    endByte = Long.parseLong(ranges[1]);
+                }
             }
-        }
 
-        // 要下载的长度
-        // 确保返回的 contentLength 不会超过文件的实际剩余大小
-        long contentLength = Math.min(endByte - startByte + 1, fileSize - startByte);
-        // 文件类型
-        String contentType = request.getServletContext().getMimeType(fileName);
+            // 要下载的长度
+            // 确保返回的 contentLength 不会超过文件的实际剩余大小
+            long contentLength = Math.min(endByte - startByte + 1, fileSize - startByte);
+            // 解决下载文件时文件名乱码问题
+            byte[] fileNameBytes = fileName.getBytes(StandardCharsets.UTF_8);
+            String asciiName = new String(fileNameBytes, 0, fileNameBytes.length, StandardCharsets.ISO_8859_1);
 
-        // 解决下载文件时文件名乱码问题
-        byte[] fileNameBytes = fileName.getBytes(StandardCharsets.UTF_8);
-        fileName = new String(fileNameBytes, 0, fileNameBytes.length, StandardCharsets.ISO_8859_1);
+            // 响应头设置---------------------------------------------------------------------------------------------
+            HttpHeaders headers = new HttpHeaders();
+            // 断点续传，获取部分字节内容：
+            headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+            headers.set(HttpHeaders.LAST_MODIFIED, objectResponse.lastModified().toString());
+            headers.set(HttpHeaders.CONTENT_DISPOSITION, "attachment;filename=" + asciiName);
+            headers.set(HttpHeaders.CONTENT_LENGTH, String.valueOf(contentLength));
+            // Content-Range，格式为：[要下载的开始位置]-[结束位置]/[文件总大小]
+            headers.set(HttpHeaders.CONTENT_RANGE, "bytes " + startByte + "-" + endByte + "/" + objectResponse.size());
+            headers.set(HttpHeaders.ETAG, "\"".concat(objectResponse.etag()).concat("\""));
+            headers.set(HttpHeaders.CONTENT_TYPE, "application/octet-stream;charset=UTF-8");
 
-        // 响应头设置---------------------------------------------------------------------------------------------
-        // 断点续传，获取部分字节内容：
-        response.setHeader("Accept-Ranges", "bytes");
-        // http状态码要为206：表示获取部分内容,SC_PARTIAL_CONTENT,若部分浏览器不支持，改成 SC_OK
-        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
-        response.setContentType(contentType);
-        response.setHeader("Last-Modified", objectResponse.lastModified().toString());
-        response.setHeader("Content-Disposition", "attachment;filename=" + fileName);
-        response.setHeader("Content-Length", String.valueOf(contentLength));
-        // Content-Range，格式为：[要下载的开始位置]-[结束位置]/[文件总大小]
-        response.setHeader("Content-Range", "bytes " + startByte + "-" + endByte + "/" + objectResponse.size());
-        response.setHeader("ETag", "\"".concat(objectResponse.etag()).concat("\""));
-        response.setContentType("application/octet-stream;charset=UTF-8");
+            // 先打开 minio 文件流再提交响应，失败时由全局异常处理返回错误，而不是写出半截响应；
+            // 流同时登记到请求上，客户端提前断开或分派失败、响应体没有执行时，请求结束即关闭
+            return minioUtil.getObjectAsync(objectResponse.object(), startByte, contentLength, null)
+                    .thenApply(stream -> {
+                        MinioUtil.closeWhenRequestEnds(request, stream);
+                        return partialContent(object, headers, stream, contentLength);
+                    });
+        });
+    }
 
-        try {
-            // 获取文件流
-            stream = minioUtil.getObject(objectResponse.object(), startByte, contentLength);
-            os = new BufferedOutputStream(response.getOutputStream());
-            // 将读取的文件写入到 OutputStream
-            byte[] bytes = new byte[BUFFER_SIZE];
-            long bytesWritten = 0;
-            int bytesRead = -1;
-            while ((bytesRead = stream.read(bytes)) != -1) {
-                if (bytesWritten + bytesRead >= contentLength) {
-                    os.write(bytes, 0, (int)(contentLength - bytesWritten));
-                    break;
-                } else {
-                    os.write(bytes, 0, bytesRead);
-                    bytesWritten += bytesRead;
+    // http状态码要为206：表示获取部分内容,SC_PARTIAL_CONTENT,若部分浏览器不支持，改成 SC_OK
+    // 响应体只写一次，由 MVC 异步线程流式写出，写完即释放缓冲
+    private ResponseEntity<StreamingResponseBody> partialContent(String object, HttpHeaders headers,
+                                                                 GetObjectResponse stream, long contentLength) {
+        return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT).headers(headers).body(out -> {
+            // 将读取的文件写入到 OutputStream，缓冲取自共享缓冲池
+            byte[] bytes = BufferPool.acquire();
+            try (GetObjectResponse in = stream) {
+                long bytesWritten = 0;
+                int bytesRead;
+                while (bytesWritten < contentLength && (bytesRead = in.read(bytes)) != -1) {
+                    int n = (int) Math.min(bytesRead, contentLength - bytesWritten);
+                    out.write(bytes, 0, n);
+                    bytesWritten += n;
                 }
+                out.flush();
+            } catch (ClientAbortException e) {
+                // 只吞掉客户端断开；minio 读取中途失败时抛出，由容器中止连接，不留下未写满 Content-Length 的响应
+                log.warn("下载 <{}> 写出中断: {}", object, e.getMessage());
+            } finally {
+                BufferPool.release(bytes);
             }
-            os.flush();
-            response.flushBuffer();
-            // 返回对应http状态
-            return new ResponseEntity<>(bytes, HttpStatus.OK);
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            if (os != null) os.close();
-            if (stream != null) stream.close();
-        }
-        return null;
+        });
     }
 
     @Override
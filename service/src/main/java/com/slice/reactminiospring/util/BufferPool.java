@@ -0,0 +1,87 @@
+package com.slice.reactminiospring.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 复制循环共用的 64KB 堆内缓冲池
+ * - 按线程 id 分条（stripe）减少争用；不用 ThreadLocal，虚拟线程下每个线程各留一块缓冲反而更浪费
+ * - 池空时临时分配（miss），归还时池满则丢弃（drop），池中最多保留 capacity 块
+ * - 用法：byte[] buf = BufferPool.acquire(); try { ... } finally { BufferPool.release(buf); }
+ */
+public final class BufferPool {
+
+    public static final int BUFFER_SIZE = 64 * 1024;
+    private static final int STRIPES = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2);
+
+    private static volatile ArrayBlockingQueue<byte[]>[] stripes = newStripes(1024);
+    private static volatile boolean pooling = true;
+
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+    private static final LongAdder drops = new LongAdder();
+
+    private BufferPool() {
+    }
+
+    /**
+     * 设置池中最多保留的缓冲块数（0 表示不池化），启动时由 DownloadManager 按配置调用
+     */
+    public static void configure(int capacity) {
+        pooling = capacity > 0;
+        stripes = newStripes(capacity);
+    }
+
+    public static byte[] acquire() {
+        byte[] buf = pooling ? stripe().poll() : null;
+        if (buf != null) {
+            hits.increment();
+            return buf;
+        }
+        misses.increment();
+        return new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * 归还缓冲，调用后不得再使用；非本池规格的数组直接忽略
+     */
+    public static void release(byte[] buf) {
+        if (buf == null || buf.length != BUFFER_SIZE || !pooling) return;
+        if (!stripe().offer(buf)) drops.increment();
+    }
+
+    public static Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        int pooled = 0;
+        int capacity = 0;
+        for (ArrayBlockingQueue<byte[]> q : stripes) {
+            pooled += q.size();
+            capacity += q.size() + q.remainingCapacity();
+        }
+        long h = hits.sum();
+        long ms = misses.sum();
+        m.put("bufferSize", BUFFER_SIZE);
+        m.put("capacity", capacity);
+        m.put("pooled", pooled);
+        m.put("hitCount", h);
+        m.put("missCount", ms);
+        m.put("hitRate", h + ms == 0 ? 1.0 : (double) h / (h + ms));
+        m.put("dropCount", drops.sum());
+        return m;
+    }
+
+    private static ArrayBlockingQueue<byte[]> stripe() {
+        ArrayBlockingQueue<byte[]>[] current = stripes;
+        return current[(int) (Thread.currentThread().getId() & (current.length - 1))];
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static ArrayBlockingQueue<byte[]>[] newStripes(int capacity) {
+        ArrayBlockingQueue<byte[]>[] result = new ArrayBlockingQueue[STRIPES];
+        int perStripe = Math.max(1, (capacity + STRIPES - 1) / STRIPES);
+        for (int i = 0; i < STRIPES; i++) result[i] = new ArrayBlockingQueue<>(perStripe);
+        return result;
+    }
+}
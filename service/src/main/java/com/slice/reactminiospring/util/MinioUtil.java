@@ -9,13 +9,16 @@ import com.slice.reactminiospring.exception.ConditionException;
 import com.slice.reactminiospring.model.FileUploadInfo;
 import com.slice.reactminiospring.model.UploadUrlsVO;
 import io.minio.*;
+import io.minio.errors.ErrorResponseException;
 import io.minio.http.Method;
 import io.minio.messages.Part;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.Resource;
+import jakarta.servlet.ServletRequest;
 import jakarta.validation.constraints.NotNull;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
+import okhttp3.OkHttpClient;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
@@ -25,6 +28,9 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
@@ -32,33 +38,37 @@ import java.util.stream.Collectors;
 @Component
 public class MinioUtil {
 
+    private static final String REQUEST_STREAMS_ATTR = MinioUtil.class.getName() + ".requestStreams";
+
     private CustomMinioClient customMinioClient;
 
     @Resource
     private MinioConfigInfo minioConfigInfo;
 
+    @Resource
+    private OkHttpClient minioHttpClient;
+
     // spring自动注入会失败
     @PostConstruct
     public void init() {
         MinioAsyncClient minioClient = MinioAsyncClient.builder()
                 .endpoint(minioConfigInfo.getEndpoint())
                 .credentials(minioConfigInfo.getAccessKey(), minioConfigInfo.getSecretKey())
+                .httpClient(minioHttpClient)
                 .build();
         customMinioClient = new CustomMinioClient(minioClient);
     }
 
     /**
-     * 获取 Minio 中已经上传的分片文件
+     * 获取 Minio 中已经上传的分片序号，全部分页返回后完成
      * @param object 文件名称
      * @param uploadId 上传的文件id（由 minio 生成）
-     * @return List<Integer>
+     * @return CompletableFuture<List<Integer>>
      */
-    @SneakyThrows
-    public List<Integer> getListParts(String object, String uploadId) {
-        List<Part> parts = getParts(object, uploadId);
-        return parts.stream()
+    public CompletableFuture<List<Integer>> getListPartsAsync(String object, String uploadId) {
+        return getPartsAsync(object, uploadId).thenApply(parts -> parts.stream()
                 .map(Part::partNumber)
-                .collect(Collectors.toList());
+                .collect(Collectors.toList()));
     }
 
     /**
@@ -151,68 +161,132 @@ public class MinioUtil {
     }
 
     /**
-     * 合并文件
+     * 合并文件：查询分片与合并请求依次异步发出，不占用调用线程等待
      * @param object object
      * @param uploadId uploadUd
      */
-    @SneakyThrows
-    public boolean mergeMultipartUpload(String object, String uploadId) {
+    public CompletableFuture<Boolean> mergeMultipartUploadAsync(String object, String uploadId) {
         log.info("通过 <{}-{}-{}> 合并<分片上传>数据", object, uploadId, minioConfigInfo.getBucket());
         // 获取所有分片
-        List<Part> partsList = getParts(object, uploadId);
-        Part[] parts = new Part[partsList.size()];
-        int partNumber = 1;
-        for (Part part : partsList) {
-            parts[partNumber - 1] = new Part(partNumber, part.etag());
-            partNumber++;
-        }
-        // 合并分片
-        customMinioClient.mergeMultipartUpload(minioConfigInfo.getBucket(), null, object, uploadId, parts, null, null);
-        return true;
+        return getPartsAsync(object, uploadId).thenCompose(partsList -> {
+            Part[] parts = new Part[partsList.size()];
+            int partNumber = 1;
+            for (Part part : partsList) {
+                parts[partNumber - 1] = new Part(partNumber, part.etag());
+                partNumber++;
+            }
+            // 合并分片
+            return call(() -> customMinioClient.mergeMultipartUploadAsync(minioConfigInfo.getBucket(), null, object, uploadId, parts, null, null));
+        }).thenApply(response -> true);
     }
 
     /**
-     * 获取文件内容和元信息，该文件不存在会抛异常
+     * 获取文件元信息，该文件不存在时以 ErrorResponseException（NoSuchKey）异常完成
      * @param object object
-     * @return StatObjectResponse
+     * @return CompletableFuture<StatObjectResponse>
      */
-    @SneakyThrows
-    public StatObjectResponse statObject(String object) {
-        return customMinioClient.statObject(StatObjectArgs.builder()
+    public CompletableFuture<StatObjectResponse> statObjectAsync(String object) {
+        return call(() -> customMinioClient.statObject(StatObjectArgs.builder()
                 .bucket(minioConfigInfo.getBucket())
                 .object(object)
-                .build())
-                .get();
+                .build()));
     }
 
-    @SneakyThrows
-    public GetObjectResponse getObject(String object, Long offset, Long contentLength) {
-        return customMinioClient.getObject(GetObjectArgs.builder()
+    /**
+     * 按区间读取对象，响应头到达时完成，不占用调用线程等待
+     * matchETag 不为空时只在对象 ETag 一致时返回，否则以 PreconditionFailed 异常完成
+     */
+    public CompletableFuture<GetObjectResponse> getObjectAsync(String object, Long offset, Long contentLength, String matchETag) {
+        GetObjectArgs.Builder builder = GetObjectArgs.builder()
                 .bucket(minioConfigInfo.getBucket())
                 .object(object)
                 .offset(offset)
-                .length(contentLength)
-                .build())
-                .get();
+                .length(contentLength);
+        if (matchETag != null && !matchETag.isEmpty()) builder.matchETag(matchETag);
+        return call(() -> customMinioClient.getObject(builder.build()));
     }
 
+    /**
+     * 交给响应体读取的对象流同时登记到请求上，请求结束（含异步完成、超时与客户端断开）时由请求监听器调用 closeRequestStreams 关闭，
+     * 响应体未被执行时也不会遗留 minio 连接；响应体自己关闭后再次关闭无影响
+     */
+    @SuppressWarnings("unchecked")
+    public static void closeWhenRequestEnds(ServletRequest request, GetObjectResponse stream) {
+        List<GetObjectResponse> streams = (List<GetObjectResponse>) request.getAttribute(REQUEST_STREAMS_ATTR);
+        if (streams == null) {
+            streams = new ArrayList<>(1);
+            request.setAttribute(REQUEST_STREAMS_ATTR, streams);
+        }
+        streams.add(stream);
+    }
 
-    @NotNull
-    private  List<Part> getParts(String object, String uploadId) throws Exception {
-        int partNumberMarker = 0;
-        boolean isTruncated = true;
-        List<Part> parts = new ArrayList<>();
-        while(isTruncated){
-            ListPartsResponse partResult = customMinioClient.listMultipart(minioConfigInfo.getBucket(), null, object, 1000, partNumberMarker, uploadId, null, null);
-            parts.addAll(partResult.result().partList());
-            // 检查是否还有更多分片
-            isTruncated = partResult.result().isTruncated();
-            if (isTruncated) {
-                // 更新partNumberMarker以获取下一页的分片数据
-                partNumberMarker = partResult.result().nextPartNumberMarker();
+    @SuppressWarnings("unchecked")
+    public static void closeRequestStreams(ServletRequest request) {
+        List<GetObjectResponse> streams = (List<GetObjectResponse>) request.getAttribute(REQUEST_STREAMS_ATTR);
+        if (streams == null) return;
+        request.removeAttribute(REQUEST_STREAMS_ATTR);
+        for (GetObjectResponse stream : streams) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                log.debug("关闭 <{}> 对象流失败: {}", stream.object(), e.getMessage());
             }
         }
-        return parts;
+    }
+
+    /**
+     * 异步结果的真实异常：CompletableFuture 组合链中抛出的异常会被包成 CompletionException
+     */
+    public static Throwable unwrap(Throwable t) {
+        while ((t instanceof CompletionException || t instanceof ExecutionException) && t.getCause() != null) {
+            t = t.getCause();
+        }
+        return t;
+    }
+
+    /**
+     * 是否为 ETag 条件不满足（对象已被覆盖）导致的失败
+     */
+    public static boolean isPreconditionFailed(Throwable t) {
+        for (Throwable c = t; c != null; c = c.getCause()) {
+            if (c instanceof ErrorResponseException
+                    && "PreconditionFailed".equals(((ErrorResponseException) c).errorResponse().code())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    @NotNull
+    private CompletableFuture<List<Part>> getPartsAsync(String object, String uploadId) {
+        return listPartsFrom(object, uploadId, 0, new ArrayList<>());
+    }
+
+    // 逐页查询分片：上一页返回后再发下一页请求，直到不再截断
+    private CompletableFuture<List<Part>> listPartsFrom(String object, String uploadId, int partNumberMarker, List<Part> parts) {
+        return call(() -> customMinioClient.listMultipartAsync(minioConfigInfo.getBucket(), null, object, 1000, partNumberMarker, uploadId, null, null))
+                .thenCompose(partResult -> {
+                    parts.addAll(partResult.result().partList());
+                    // 检查是否还有更多分片
+                    if (!partResult.result().isTruncated()) return CompletableFuture.completedFuture(parts);
+                    // 更新partNumberMarker以获取下一页的分片数据
+                    return listPartsFrom(object, uploadId, partResult.result().nextPartNumberMarker(), parts);
+                });
+    }
+
+    // SDK 在发出请求前就可能同步抛出（参数非法、签名失败等），统一转成失败的 future
+    private static <T> CompletableFuture<T> call(AsyncCall<T> call) {
+        try {
+            return call.start();
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface AsyncCall<T> {
+        CompletableFuture<T> start() throws Exception;
     }
 
     /**
@@ -3,10 +3,12 @@ package com.slice.reactminiospring.util;
 import jakarta.annotation.Resource;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Component;
 import org.springframework.util.CollectionUtils;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -18,6 +20,13 @@ public class RedisUtil {
     @Resource
     private RedisTemplate redisTemplate;
 
+    private static final DefaultRedisScript<Long> EXPIRE_IF_EQUALS = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('pexpire', KEYS[1], ARGV[2]) else return 0 end",
+            Long.class);
+    private static final DefaultRedisScript<Long> DEL_IF_EQUALS = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end",
+            Long.class);
+
     /**
      * 指定缓存失效时间
      * @param key 键
@@ -145,6 +154,53 @@ public class RedisUtil {
         }
     }
 
+    /**
+     * 不存在时才放入并设置时间，用于分布式租约
+     * @param key 键
+     * @param value 值（租约持有者标识）
+     * @param time 时间
+     * @param unit 单位
+     * @return true 放入成功（获得租约） false 已存在或失败
+     */
+    public boolean setIfAbsent(String key, Object value, long time, TimeUnit unit) {
+        try {
+            return Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(key, value, time, unit));
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * 值等于 expected 时才续期（毫秒），避免续上别人的租约
+     * @return true 续期成功
+     */
+    @SuppressWarnings("unchecked")
+    public boolean expireIfEquals(String key, Object expected, long millis) {
+        try {
+            Long r = (Long) redisTemplate.execute(EXPIRE_IF_EQUALS, Collections.singletonList(key), expected, millis);
+            return r != null && r > 0;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * 值等于 expected 时才删除，避免删掉租约过期后别人重新获得的租约
+     * @return true 删除成功
+     */
+    @SuppressWarnings("unchecked")
+    public boolean delIfEquals(String key, Object expected) {
+        try {
+            Long r = (Long) redisTemplate.execute(DEL_IF_EQUALS, Collections.singletonList(key), expected);
+            return r != null && r > 0;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
     /**
      * 递增
      * @param key 键
@@ -589,6 +645,30 @@ public class RedisUtil {
         }
     }
 
+    /**
+     * 移除有序集合中的成员
+     */
+    public long zRemove(String key, Object... values) {
+        Long removed = redisTemplate.opsForZSet().remove(key, values);
+        return removed == null ? 0 : removed;
+    }
+
+    /**
+     * 获取 score 在 [min, max] 之间的成员
+     */
+    @SuppressWarnings("unchecked")
+    public Set<Object> zRangeByScore(String key, double min, double max) {
+        return redisTemplate.opsForZSet().rangeByScore(key, min, max);
+    }
+
+    /**
+     * 移除 score 在 [min, max] 之间的成员
+     */
+    public long zRemoveRangeByScore(String key, double min, double max) {
+        Long removed = redisTemplate.opsForZSet().removeRangeByScore(key, min, max);
+        return removed == null ? 0 : removed;
+    }
+
     /**
      * 获取有序集 key 中成员 member 的排名 。
      * 其中有序集成员按 score 值递减 (从大到小) 排序。
@@ -0,0 +1,94 @@
+package com.slice.reactminiospring.bench;
+
+import com.slice.reactminiospring.util.BufferPool;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 复制循环分配量对比：每次调用 new byte[64KB] 与 BufferPool 借还
+ * <p>
+ * 模拟下载路径的复制循环（一次请求复制一段数据到输出流），多线程并发执行，
+ * 用 com.sun.management.ThreadMXBean 统计各线程分配的字节数，输出每次复制的平均分配量与耗时。
+ * <pre>
+ *   java -cp target/classes:target/test-classes com.slice.reactminiospring.bench.BufferPoolAllocationBenchmark [threads=8] [copies=200000] [copyBytes=262144]
+ * </pre>
+ */
+public class BufferPoolAllocationBenchmark {
+
+    private static final OutputStream DISCARD = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int copies = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+        int copyBytes = args.length > 2 ? Integer.parseInt(args[2]) : 256 * 1024;
+        byte[] source = new byte[copyBytes];
+
+        // 预热两轮，让 JIT 编译完成后再测
+        for (int i = 0; i < 2; i++) {
+            run(false, threads, copies / 10, source);
+            run(true, threads, copies / 10, source);
+        }
+        report("new byte[]", run(false, threads, copies, source), copies);
+        report("BufferPool", run(true, threads, copies, source), copies);
+        System.out.println("pool stats: " + BufferPool.stats());
+    }
+
+    private static long[] run(boolean pooled, int threads, int copies, byte[] source) throws InterruptedException {
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        AtomicLong allocated = new AtomicLong();
+        List<Thread> workers = new ArrayList<>(threads);
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                long before = mx.getCurrentThreadAllocatedBytes();
+                for (int i = 0; i < copies / threads; i++) {
+                    try {
+                        copy(new ByteArrayInputStream(source), DISCARD, source.length, pooled);
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+                allocated.addAndGet(mx.getCurrentThreadAllocatedBytes() - before);
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) worker.join();
+        return new long[]{allocated.get(), System.nanoTime() - start};
+    }
+
+    // 与 DownloadManager.copyWithClientAbortHandling 相同的循环
+    private static void copy(InputStream in, OutputStream out, long length, boolean pooled) throws IOException {
+        byte[] buf = pooled ? BufferPool.acquire() : new byte[BufferPool.BUFFER_SIZE];
+        try {
+            long remaining = length;
+            int r;
+            while (remaining > 0 && (r = in.read(buf, 0, (int) Math.min(buf.length, remaining))) != -1) {
+                out.write(buf, 0, r);
+                remaining -= r;
+            }
+        } finally {
+            if (pooled) BufferPool.release(buf);
+        }
+    }
+
+    private static void report(String name, long[] result, int copies) {
+        System.out.printf("%-11s allocated=%,d bytes (%,d B/copy) elapsed=%d ms%n",
+                name, result[0], result[0] / copies, result[1] / 1_000_000);
+    }
+}
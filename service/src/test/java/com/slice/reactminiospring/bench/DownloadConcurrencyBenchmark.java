@@ -0,0 +1,119 @@
+package com.slice.reactminiospring.bench;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 并发 Range 下载压测：对运行中的服务同时发起 N 个 Range 请求，统计吞吐与延迟分位
+ * <p>
+ * 对比平台线程与虚拟线程两种模式，分别以下面两种方式启动服务后各跑一次：
+ * <pre>
+ *   java -jar service.jar --spring.threads.virtual.enabled=false
+ *   java -jar service.jar --spring.threads.virtual.enabled=true   (JDK 21+)
+ * </pre>
+ * 运行：
+ * <pre>
+ *   java -cp target/test-classes com.slice.reactminiospring.bench.DownloadConcurrencyBenchmark \
+ *       http://127.0.0.1:8080 &lt;fileId&gt; [concurrency=2000] [rangeSize=1048576] [fileSize=0]
+ * </pre>
+ * fileSize 大于 0 时在 [0, fileSize) 内随机选取区间（冷热混合），否则所有请求读同一区间（纯热点）
+ */
+public class DownloadConcurrencyBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("usage: DownloadConcurrencyBenchmark <baseUrl> <fileId> [concurrency] [rangeSize] [fileSize]");
+            System.exit(1);
+        }
+        String baseUrl = args[0];
+        String fileId = args[1];
+        int concurrency = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+        long rangeSize = args.length > 3 ? Long.parseLong(args[3]) : 1024 * 1024;
+        long fileSize = args.length > 4 ? Long.parseLong(args[4]) : 0;
+
+        HttpClient client = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(30))
+                .build();
+        URI uri = URI.create(baseUrl + "/files/downloadForWindows/" + fileId);
+
+        List<Long> latencies = Collections.synchronizedList(new ArrayList<>(concurrency));
+        AtomicInteger failures = new AtomicInteger();
+        AtomicLong bytes = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(concurrency);
+
+        // 客户端每个请求一个线程，保证 N 个请求真正同时在途
+        ExecutorService clients = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r);
+            t.setDaemon(true);
+            return t;
+        });
+        for (int i = 0; i < concurrency; i++) {
+            clients.submit(() -> {
+                try {
+                    long from = fileSize > rangeSize
+                            ? ThreadLocalRandom.current().nextLong(fileSize - rangeSize) : 0;
+                    HttpRequest request = HttpRequest.newBuilder(uri)
+                            .header("Range", "bytes=" + from + "-" + (from + rangeSize - 1))
+                            .timeout(Duration.ofMinutes(15))
+                            .GET()
+                            .build();
+                    start.await();
+                    long t0 = System.nanoTime();
+                    HttpResponse<InputStream> resp = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+                    long n = 0;
+                    try (InputStream in = resp.body()) {
+                        byte[] buf = new byte[64 * 1024];
+                        int r;
+                        while ((r = in.read(buf)) != -1) n += r;
+                    }
+                    if (resp.statusCode() != 206 && resp.statusCode() != 200) {
+                        failures.incrementAndGet();
+                        return;
+                    }
+                    latencies.add(System.nanoTime() - t0);
+                    bytes.addAndGet(n);
+                } catch (Exception e) {
+                    failures.incrementAndGet();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - begin;
+        clients.shutdownNow();
+
+        List<Long> sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+        double seconds = elapsed / 1e9;
+        System.out.printf("requests=%d ok=%d failed=%d elapsed=%.2fs%n",
+                concurrency, sorted.size(), failures.get(), seconds);
+        System.out.printf("throughput=%.1f req/s %.1f MB/s%n",
+                sorted.size() / seconds, bytes.get() / seconds / (1024 * 1024));
+        System.out.printf("latency p50=%dms p90=%dms p99=%dms max=%dms%n",
+                percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99), percentile(sorted, 100));
+    }
+
+    private static long percentile(List<Long> sorted, int p) {
+        if (sorted.isEmpty()) return 0;
+        int idx = (int) Math.ceil(p / 100.0 * sorted.size()) - 1;
+        return sorted.get(Math.max(0, idx)) / 1_000_000;
+    }
+}
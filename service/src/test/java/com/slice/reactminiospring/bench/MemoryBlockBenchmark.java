@@ -0,0 +1,107 @@
+package com.slice.reactminiospring.bench;
+
+import com.slice.reactminiospring.service.MemoryBlock;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * 堆内块 LZ4 压缩的代价与收益：压缩率、入堆压缩吞吐、按区间读取（解压）吞吐与原始字节直接写出的对比
+ * <p>
+ * 两类数据：类似访问日志的 CSV 文本（可压缩），随机字节（不可压缩，应被探测直接放行存原始字节）。
+ * 读取按 256KB 区间写到一个只做内存拷贝的输出流，模拟下载路径上的 writeBlockSlice。
+ * <pre>
+ *   java -cp target/classes:target/test-classes:&lt;lz4-java.jar&gt; com.slice.reactminiospring.bench.MemoryBlockBenchmark [blockBytes=4194304] [rounds=200]
+ * </pre>
+ */
+public class MemoryBlockBenchmark {
+
+    private static final int SLICE = 256 * 1024;
+
+    // 拷贝进一块固定缓冲，近似写入 socket 发送缓冲的内存拷贝，避免空写被 JIT 整段消除
+    private static final byte[] SINK = new byte[SLICE];
+    private static long checksum;
+    private static final OutputStream DISCARD = new OutputStream() {
+        @Override
+        public void write(int b) {
+            checksum += b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            System.arraycopy(b, off, SINK, 0, len);
+            checksum += SINK[len - 1];
+        }
+    };
+
+    public static void main(String[] args) throws Exception {
+        int blockBytes = args.length > 0 ? Integer.parseInt(args[0]) : 4 * 1024 * 1024;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        run("csv", csv(blockBytes), rounds);
+        run("random", random(blockBytes), rounds);
+        System.out.println("checksum " + checksum);
+    }
+
+    private static void run(String name, byte[] data, int rounds) throws Exception {
+        MemoryBlock raw = MemoryBlock.raw(data);
+        // 预热
+        for (int i = 0; i < rounds / 4; i++) {
+            MemoryBlock.of(data, 0.8);
+            slices(raw, data.length, i);
+        }
+
+        long start = System.nanoTime();
+        MemoryBlock block = null;
+        for (int i = 0; i < rounds; i++) block = MemoryBlock.of(data, 0.8);
+        long compressNanos = System.nanoTime() - start;
+
+        for (int i = 0; i < rounds / 4; i++) slices(block, data.length, i);
+        long rawNanos = 0;
+        long blockNanos = 0;
+        for (int i = 0; i < rounds; i++) {
+            long t0 = System.nanoTime();
+            slices(raw, data.length, i);
+            long t1 = System.nanoTime();
+            slices(block, data.length, i);
+            blockNanos += System.nanoTime() - t1;
+            rawNanos += t1 - t0;
+        }
+
+        double mb = (double) data.length * rounds / (1024 * 1024);
+        System.out.printf("%-7s compressed=%s ratio=%.2f store=%.0f MB/s serve raw=%.0f MB/s serve block=%.0f MB/s%n",
+                name, block.isCompressed(), (double) block.rawLength() / block.weight(),
+                mb / (compressNanos / 1e9), mb / (rawNanos / 1e9), mb / (blockNanos / 1e9));
+    }
+
+    // 按 256KB 区间写出整个块，起点错开半帧，让区间跨越帧边界
+    private static void slices(MemoryBlock block, int length, int round) throws Exception {
+        int shift = (round & 1) * 32 * 1024;
+        for (long off = shift; off < length; off += SLICE) {
+            block.writeTo(DISCARD, off, Math.min(SLICE, length - off));
+        }
+    }
+
+    private static byte[] csv(int size) {
+        Random random = new Random(42);
+        String[] paths = {"/files/download/", "/files/downloadForWindows/", "/download/metrics/chunk-cache", "/upload/chunk"};
+        StringBuilder sb = new StringBuilder(size + 256);
+        while (sb.length() < size) {
+            sb.append(1_700_000_000_000L + random.nextInt(1_000_000)).append(',')
+                    .append("10.0.").append(random.nextInt(8)).append('.').append(random.nextInt(256)).append(',')
+                    .append(paths[random.nextInt(paths.length)]).append(random.nextInt(5000)).append(',')
+                    .append(random.nextBoolean() ? 200 : 206).append(',')
+                    .append(random.nextInt(4 * 1024 * 1024)).append('\n');
+        }
+        byte[] out = new byte[size];
+        System.arraycopy(sb.toString().getBytes(StandardCharsets.US_ASCII), 0, out, 0, size);
+        return out;
+    }
+
+    private static byte[] random(int size) {
+        byte[] out = new byte[size];
+        new Random(7).nextBytes(out);
+        return out;
+    }
+}
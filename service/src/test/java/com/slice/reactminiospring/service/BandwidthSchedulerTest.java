@@ -0,0 +1,118 @@
+package com.slice.reactminiospring.service;
+
+import com.slice.reactminiospring.config.DownloadConfigInfo;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 只断言等待时间的下限（sleep 不会早于预约时间返回），机器繁忙时不会误报
+ */
+class BandwidthSchedulerTest {
+
+    private static final int KB = 1024;
+
+    private DownloadConfigInfo config;
+    private BandwidthScheduler scheduler;
+
+    @BeforeEach
+    void setUp() {
+        config = new DownloadConfigInfo();
+        config.getBandwidth().setEnabled(true);
+        config.getBandwidth().setGlobalRate(DataSize.ofKilobytes(256));
+        config.getBandwidth().setBurst(DataSize.ofKilobytes(16));
+        scheduler = new BandwidthScheduler();
+        ReflectionTestUtils.setField(scheduler, "downloadConfigInfo", config);
+        scheduler.init();
+    }
+
+    /**
+     * 同一客户端的多条连接共用一个令牌桶：开两条连接拿到的总带宽与另一个单连接客户端相同
+     */
+    @Test
+    void parallelStreamsOfOneClientShareItsRate() throws Exception {
+        BandwidthScheduler.ThrottledStream a1 = scheduler.open("a", OutputStream.nullOutputStream());
+        BandwidthScheduler.ThrottledStream a2 = scheduler.open("a", OutputStream.nullOutputStream());
+        BandwidthScheduler.ThrottledStream b = scheduler.open("b", OutputStream.nullOutputStream());
+        assertEquals(2, scheduler.stats().get("activeClients"));
+        assertEquals(2L, scheduler.stats().get("activeWeight"));
+
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        try {
+            // 每个客户端 128KB/s：a 共写 96KB 至少 (96-16)/128 s，b 写 48KB 至少 (48-16)/128 s
+            List<Future<Long>> a = new ArrayList<>();
+            a.add(pool.submit(() -> timedWrite(a1, 48 * KB)));
+            a.add(pool.submit(() -> timedWrite(a2, 48 * KB)));
+            Future<Long> bElapsed = pool.submit(() -> timedWrite(b, 48 * KB));
+
+            long aElapsed = Math.max(a.get(0).get(10, TimeUnit.SECONDS), a.get(1).get(10, TimeUnit.SECONDS));
+            assertTrue(aElapsed >= 550, "client a finished in " + aElapsed + "ms");
+            assertTrue(bElapsed.get(10, TimeUnit.SECONDS) >= 200);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        a1.close();
+        a1.close();
+        assertEquals(2, scheduler.stats().get("activeClients"));
+        a2.close();
+        b.close();
+        assertEquals(0, scheduler.stats().get("activeClients"));
+        assertEquals(0L, scheduler.stats().get("activeWeight"));
+        assertEquals(144L * KB, scheduler.stats().get("bytesWritten"));
+    }
+
+    /**
+     * 权重计入活跃权重之和；per-client-rate 限制单个客户端的速率
+     */
+    @Test
+    void weightAndPerClientCap() throws Exception {
+        config.getBandwidth().getWeights().put("vip", 3);
+        config.getBandwidth().setPerClientRate(DataSize.ofKilobytes(64));
+        BandwidthScheduler.ThrottledStream vip = scheduler.open("vip", OutputStream.nullOutputStream());
+        assertEquals(3L, scheduler.stats().get("activeWeight"));
+
+        // 只有一个客户端时份额为全局速率，仍受 64KB/s 上限：(48-16)/64 s
+        long elapsed = timedWrite(vip, 48 * KB);
+        assertTrue(elapsed >= 450, "capped client finished in " + elapsed + "ms");
+        vip.close();
+    }
+
+    @Test
+    void writesPassThroughUnchanged() throws Exception {
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        byte[] data = new byte[40 * KB + 7];
+        for (int i = 0; i < data.length; i++) data[i] = (byte) i;
+        try (BandwidthScheduler.ThrottledStream out = scheduler.open("c", sink)) {
+            out.write(data, 0, data.length);
+            out.write(ByteBuffer.wrap(data, 0, 10));
+            out.write(1);
+        }
+        byte[] written = sink.toByteArray();
+        assertEquals(data.length + 11, written.length);
+        assertArrayEquals(data, Arrays.copyOf(written, data.length));
+    }
+
+    private static long timedWrite(OutputStream out, int bytes) throws Exception {
+        byte[] buf = new byte[4 * KB];
+        long t0 = System.nanoTime();
+        for (int n = 0; n < bytes; n += buf.length) out.write(buf, 0, Math.min(buf.length, bytes - n));
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0);
+    }
+}
@@ -0,0 +1,216 @@
+package com.slice.reactminiospring.service;
+
+import com.slice.reactminiospring.config.DownloadConfigInfo;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DiskChunkStoreTest {
+
+    @TempDir
+    Path dir;
+
+    private DownloadConfigInfo config;
+    private DiskChunkStore store;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        config = new DownloadConfigInfo();
+        config.getDisk().setDir(dir.toString());
+        config.getDisk().setMaxSize(DataSize.ofBytes(100));
+        store = newStore();
+    }
+
+    private DiskChunkStore newStore() throws IOException {
+        DiskChunkStore s = new DiskChunkStore();
+        ReflectionTestUtils.setField(s, "downloadConfigInfo", config);
+        s.init();
+        return s;
+    }
+
+    /**
+     * 进行中拉取的 tmp 按完整长度计入预算：开始写之前就淘汰旧文件，完成后由正式文件接替占用
+     */
+    @Test
+    void inFlightFetchReservesBudgetUntilComplete() throws Exception {
+        File old = cached("content/old", 60);
+        store.record(old);
+
+        File target = dir.resolve("content").resolve("full").toFile();
+        InFlightFetch fetch = new InFlightFetch("content:FULL", 50, target, store);
+        fetch.start();
+        assertFalse(old.exists(), "reservation should evict to stay under max-size");
+        assertEquals(50L, store.stats().get("reservedBytes"));
+        assertEquals(0L, store.stats().get("usedBytes"));
+
+        fetch.append(new byte[50], 0, 50);
+        fetch.complete();
+        store.record(target);
+        assertEquals(0L, store.stats().get("reservedBytes"));
+        assertEquals(50L, store.stats().get("usedBytes"));
+    }
+
+    @Test
+    void failedFetchReleasesReservationOnce() throws Exception {
+        File target = dir.resolve("content").resolve("0").toFile();
+        InFlightFetch fetch = new InFlightFetch("content#0", 40, target, store);
+        fetch.start();
+        assertEquals(40L, store.stats().get("reservedBytes"));
+
+        fetch.fail(new CancellationException("no readers left"));
+        fetch.fail(new IOException("late failure"));
+        assertEquals(0L, store.stats().get("reservedBytes"));
+        assertEquals(0, store.stats().get("activeTmp"));
+    }
+
+    /**
+     * 后台清理只删除不属于进行中拉取、且长时间未写入的 tmp
+     */
+    @Test
+    void sweepRemovesOnlyStaleOrphanTmp() throws Exception {
+        config.getDisk().setTmpMaxAge(Duration.ofMinutes(1));
+        File target = dir.resolve("content").resolve("0").toFile();
+        InFlightFetch fetch = new InFlightFetch("content#0", 10, target, store);
+        fetch.start();
+        File active = onlyTmp(target.getParentFile());
+        File stale = cached("content/1.gz.tmp", 5);
+        File fresh = cached("content/2.gz.tmp", 5);
+        long old = System.currentTimeMillis() - Duration.ofHours(1).toMillis();
+        assertTrue(active.setLastModified(old));
+        assertTrue(stale.setLastModified(old));
+
+        store.sweepTmp();
+
+        assertTrue(active.exists(), "tmp of an in-flight fetch must survive");
+        assertFalse(stale.exists());
+        assertTrue(fresh.exists(), "recently written tmp may still have a writer");
+        assertEquals(1L, store.stats().get("tmpCleaned"));
+        fetch.fail(new IOException("done"));
+    }
+
+    /**
+     * LRU：命中过的文件移到队尾，超出预算时先淘汰最久未访问的
+     */
+    @Test
+    void lruEvictsLeastRecentlyUsed() throws Exception {
+        File a = record("content/a", 30);
+        File b = record("content/b", 30);
+        File c = record("content/c", 30);
+        store.touch(a);
+        File d = record("content/d", 30);
+
+        assertFalse(b.exists());
+        assertTrue(a.exists() && c.exists() && d.exists());
+        assertEquals(90L, store.stats().get("usedBytes"));
+        assertEquals(1L, store.stats().get("evictionCount"));
+    }
+
+    @Test
+    void lfuEvictsFewestHits() throws Exception {
+        config.getDisk().setPolicy(DownloadConfigInfo.DiskEvictionPolicy.LFU);
+        File a = record("content/a", 30);
+        File b = record("content/b", 30);
+        File c = record("content/c", 30);
+        store.touch(b);
+        store.touch(b);
+        store.touch(c);
+        File d = record("content/d", 30);
+
+        assertFalse(a.exists());
+        assertTrue(b.exists() && c.exists() && d.exists());
+    }
+
+    /**
+     * 读取中的文件淘汰时跳过；释放后在保护期内仍不淘汰（sendfile 在请求结束后才打开文件）
+     */
+    @Test
+    void pinnedFileIsNotEvicted() throws Exception {
+        File a = record("content/a", 30);
+        File b = record("content/b", 30);
+        File c = record("content/c", 30);
+        store.pin(a);
+        record("content/d", 30);
+        assertTrue(a.exists());
+        assertFalse(b.exists());
+        assertEquals(1L, store.stats().get("pinned"));
+
+        store.unpin(a);
+        store.unpin(a);
+        assertEquals(0L, store.stats().get("pinned"));
+        record("content/e", 30);
+        assertTrue(a.exists(), "released pin is kept for the grace period");
+        assertFalse(c.exists());
+        assertTrue((Long) store.stats().get("evictionPinnedSkips") >= 2);
+    }
+
+    /**
+     * 正常退出时持久化索引，重启后按索引恢复访问顺序与命中次数，大小不符的条目丢弃
+     */
+    @Test
+    void indexRoundTripsAcrossRestart() throws Exception {
+        File a = record("content/a", 30);
+        File b = record("content/b", 20);
+        File c = record("content/c", 10);
+        store.touch(a);
+        store.shutdown();
+        Files.write(c.toPath(), new byte[15]);
+
+        store = newStore();
+        assertEquals(2, store.stats().get("entries"));
+        assertEquals(50L, store.stats().get("usedBytes"));
+        // 恢复的 LRU 顺序为 b, a：超额时先淘汰 b
+        record("content/d", 60);
+        assertFalse(b.exists());
+        assertTrue(a.exists());
+    }
+
+    /**
+     * 上次未正常退出（残留运行标记）时不信任索引，遍历目录重建并删除残留的 tmp
+     */
+    @Test
+    void crashedRestartRescansDirectory() throws Exception {
+        record("content/a", 30);
+        store.shutdown();
+        File b = cached("content/b", 20);
+        File leftover = cached("content/c.gz.tmp", 5);
+        Files.write(dir.resolve(".running"), new byte[0]);
+
+        store = newStore();
+        assertEquals(2, store.stats().get("entries"));
+        assertEquals(50L, store.stats().get("usedBytes"));
+        assertTrue(b.exists());
+        assertFalse(leftover.exists());
+    }
+
+    private File record(String relative, int size) throws IOException {
+        File f = cached(relative, size);
+        store.record(f);
+        return f;
+    }
+
+    private File cached(String relative, int size) throws IOException {
+        Path p = dir.resolve(relative);
+        Files.createDirectories(p.getParent());
+        Files.write(p, new byte[size]);
+        return p.toFile();
+    }
+
+    private static File onlyTmp(File parent) {
+        File[] tmps = parent.listFiles((d, name) -> name.endsWith(".tmp"));
+        assertEquals(1, tmps == null ? 0 : tmps.length);
+        return tmps[0];
+    }
+}
@@ -0,0 +1,126 @@
+package com.slice.reactminiospring.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.MediaType;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DownloadRangesTest {
+
+    private static final int TOTAL = 1000;
+
+    /**
+     * 按预先生成的分段头拼出的 multipart/byteranges 响应体：长度与 Content-Length 一致，按 boundary 能切回各区间的原始字节
+     */
+    @Test
+    void multipartBodyMatchesContentLengthAndRanges() {
+        byte[] file = new byte[TOTAL];
+        new Random(7).nextBytes(file);
+        List<long[]> ranges = List.of(new long[]{0, 99}, new long[]{500, 500}, new long[]{900, 999});
+        HttpHeaders headers = new HttpHeaders();
+
+        List<byte[]> delimiters = DownloadManager.multipartDelimiters(TOTAL, ranges, headers);
+        assertEquals(ranges.size() + 1, delimiters.size());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < ranges.size(); i++) {
+            out.writeBytes(delimiters.get(i));
+            long[] r = ranges.get(i);
+            out.write(file, (int) r[0], (int) (r[1] - r[0] + 1));
+        }
+        out.writeBytes(delimiters.get(ranges.size()));
+        byte[] body = out.toByteArray();
+
+        assertEquals(String.valueOf(body.length), headers.getFirst(HttpHeaders.CONTENT_LENGTH));
+        MediaType type = MediaType.parseMediaType(headers.getFirst(HttpHeaders.CONTENT_TYPE));
+        assertEquals("multipart/byteranges", type.getType() + "/" + type.getSubtype());
+        String boundary = type.getParameter("boundary");
+
+        List<byte[]> parts = parseParts(body, boundary, ranges);
+        for (int i = 0; i < ranges.size(); i++) {
+            long[] r = ranges.get(i);
+            assertArrayEquals(Arrays.copyOfRange(file, (int) r[0], (int) r[1] + 1), parts.get(i));
+        }
+    }
+
+    @Test
+    void eachResponseUsesItsOwnBoundary() {
+        HttpHeaders first = new HttpHeaders();
+        HttpHeaders second = new HttpHeaders();
+        List<long[]> ranges = List.of(new long[]{0, 9}, new long[]{20, 29});
+        DownloadManager.multipartDelimiters(TOTAL, ranges, first);
+        DownloadManager.multipartDelimiters(TOTAL, ranges, second);
+        assertNotEquals(first.getFirst(HttpHeaders.CONTENT_TYPE), second.getFirst(HttpHeaders.CONTENT_TYPE));
+    }
+
+    /**
+     * 区间按文件长度截断：结尾越界的截到末尾，后缀区间超过文件长度时取整个文件，起点越界的丢弃
+     */
+    @Test
+    void satisfiableRangesTrimToFileLength() {
+        List<long[]> satisfiable = DownloadManager.satisfiableRanges(
+                HttpRange.parseRanges("bytes=0-99,950-2000,-50,1000-1100,-5000,999-"), TOTAL);
+
+        assertEquals(5, satisfiable.size());
+        assertArrayEquals(new long[]{0, 99}, satisfiable.get(0));
+        assertArrayEquals(new long[]{950, 999}, satisfiable.get(1));
+        assertArrayEquals(new long[]{950, 999}, satisfiable.get(2));
+        assertArrayEquals(new long[]{0, 999}, satisfiable.get(3));
+        assertArrayEquals(new long[]{999, 999}, satisfiable.get(4));
+    }
+
+    @Test
+    void noSatisfiableRangeOnEmptyFileOrPastEnd() {
+        assertTrue(DownloadManager.satisfiableRanges(HttpRange.parseRanges("bytes=1000-"), TOTAL).isEmpty());
+        assertTrue(DownloadManager.satisfiableRanges(HttpRange.parseRanges("bytes=0-10"), 0).isEmpty());
+    }
+
+    // 按 RFC 7233 附录 A 的格式解析：每段为 CRLF--boundary CRLF，段头，空行，区间字节；以 CRLF--boundary-- CRLF 结束
+    private static List<byte[]> parseParts(byte[] body, String boundary, List<long[]> ranges) {
+        List<byte[]> parts = new ArrayList<>();
+        int pos = 0;
+        for (long[] r : ranges) {
+            String head = "\r\n--" + boundary + "\r\n";
+            assertEquals(head, ascii(body, pos, head.length()));
+            pos += head.length();
+            int headersEnd = indexOf(body, "\r\n\r\n".getBytes(StandardCharsets.US_ASCII), pos);
+            String partHeaders = ascii(body, pos, headersEnd - pos);
+            assertTrue(partHeaders.contains(HttpHeaders.CONTENT_RANGE + ": bytes " + r[0] + "-" + r[1] + "/" + TOTAL),
+                    partHeaders);
+            pos = headersEnd + 4;
+            int len = (int) (r[1] - r[0] + 1);
+            parts.add(Arrays.copyOfRange(body, pos, pos + len));
+            pos += len;
+        }
+        String close = "\r\n--" + boundary + "--\r\n";
+        assertEquals(close, ascii(body, pos, body.length - pos));
+        return parts;
+    }
+
+    private static String ascii(byte[] b, int off, int len) {
+        return new String(b, off, len, StandardCharsets.US_ASCII);
+    }
+
+    private static int indexOf(byte[] b, byte[] target, int from) {
+        outer:
+        for (int i = from; i <= b.length - target.length; i++) {
+            for (int j = 0; j < target.length; j++) {
+                if (b[i + j] != target[j]) continue outer;
+            }
+            return i;
+        }
+        throw new AssertionError("not found from " + from);
+    }
+}
@@ -0,0 +1,125 @@
+package com.slice.reactminiospring.service;
+
+import com.slice.reactminiospring.config.DownloadConfigInfo;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FetchSchedulerTest {
+
+    private DownloadConfigInfo config;
+    private FetchScheduler scheduler;
+    // 手动执行的线程池：派发的任务留在这里，由 drain 依次执行，每个任务结束时触发下一次派发
+    private final ArrayDeque<Runnable> dispatched = new ArrayDeque<>();
+    private final List<String> order = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        config = new DownloadConfigInfo();
+        scheduler = new FetchScheduler();
+        ReflectionTestUtils.setField(scheduler, "downloadConfigInfo", config);
+    }
+
+    /**
+     * 单个槽位时，空闲槽位按通道优先级分配，不按提交顺序
+     */
+    @Test
+    void interactiveGoesBeforeQueuedLowerLanes() {
+        scheduler.start(dispatched::add, 1);
+        submit("busy", FetchScheduler.Lane.INTERACTIVE);
+        submit("prefetch", FetchScheduler.Lane.SPECULATIVE);
+        submit("fill", FetchScheduler.Lane.BULK);
+        submit("range", FetchScheduler.Lane.INTERACTIVE);
+
+        drain();
+        assertEquals(List.of("busy", "range", "fill", "prefetch"), order);
+    }
+
+    /**
+     * 排队超过 max-wait 的预读不论优先级拿到下一个槽位，交互请求持续到达时也不会饿死
+     */
+    @Test
+    void agedTaskOvertakesHigherLanes() throws Exception {
+        config.getLanes().setMaxWait(Duration.ofMillis(100));
+        scheduler.start(dispatched::add, 1);
+        submit("busy", FetchScheduler.Lane.INTERACTIVE);
+        submit("prefetch", FetchScheduler.Lane.SPECULATIVE);
+        Thread.sleep(150);
+        submit("range", FetchScheduler.Lane.INTERACTIVE);
+
+        drain();
+        assertEquals(List.of("busy", "prefetch", "range"), order);
+        assertEquals(1L, scheduler.stats().get("aged"));
+    }
+
+    @Test
+    void notAgedBeforeMaxWait() {
+        config.getLanes().setMaxWait(Duration.ofHours(1));
+        scheduler.start(dispatched::add, 1);
+        submit("busy", FetchScheduler.Lane.INTERACTIVE);
+        submit("prefetch", FetchScheduler.Lane.SPECULATIVE);
+        submit("range", FetchScheduler.Lane.INTERACTIVE);
+
+        drain();
+        assertEquals(List.of("busy", "range", "prefetch"), order);
+        assertEquals(0L, scheduler.stats().get("aged"));
+    }
+
+    /**
+     * 仍在排队的预读被交互请求加入后提升到交互通道，排在后提交的整文件填充之前
+     */
+    @Test
+    void promotedTaskJoinsInteractiveLane() {
+        scheduler.start(dispatched::add, 1);
+        submit("busy", FetchScheduler.Lane.INTERACTIVE);
+        submit("prefetch", FetchScheduler.Lane.SPECULATIVE);
+        submit("fill", FetchScheduler.Lane.BULK);
+        scheduler.promote("prefetch", FetchScheduler.Lane.INTERACTIVE);
+        // 已在更高优先级的通道中时不降级
+        scheduler.promote("prefetch", FetchScheduler.Lane.SPECULATIVE);
+
+        drain();
+        assertEquals(List.of("busy", "prefetch", "fill"), order);
+        assertEquals(1L, scheduler.stats().get("promoted"));
+    }
+
+    /**
+     * 预读只用自己的份额，不借用其他通道的空闲槽位
+     */
+    @Test
+    void speculativeDoesNotBorrowIdleShares() {
+        scheduler.start(dispatched::add, 10);
+        for (int i = 0; i < 5; i++) submit("prefetch" + i, FetchScheduler.Lane.SPECULATIVE);
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> speculative = (Map<String, Object>) scheduler.stats().get("speculative");
+        // 10 × 15% = 1
+        assertEquals(1, speculative.get("running"));
+        assertEquals(4, speculative.get("queued"));
+        assertEquals(1, dispatched.size());
+
+        submit("fill", FetchScheduler.Lane.BULK);
+        submit("range", FetchScheduler.Lane.INTERACTIVE);
+        assertEquals(3, dispatched.size());
+        drain();
+        assertTrue(order.indexOf("range") < order.indexOf("prefetch1"));
+    }
+
+    private void submit(String key, FetchScheduler.Lane lane) {
+        scheduler.submit(key, lane, () -> order.add(key));
+    }
+
+    private void drain() {
+        Runnable next;
+        while ((next = dispatched.pollFirst()) != null) next.run();
+    }
+}
@@ -0,0 +1,197 @@
+package com.slice.reactminiospring.service;
+
+import com.slice.reactminiospring.config.DownloadConfigInfo;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InFlightFetchTest {
+
+    private static final byte[] DATA = "0123456789abcdef".getBytes();
+
+    @TempDir
+    Path dir;
+
+    private DiskChunkStore store;
+    private File target;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        DownloadConfigInfo config = new DownloadConfigInfo();
+        config.getDisk().setDir(dir.toString());
+        store = new DiskChunkStore();
+        ReflectionTestUtils.setField(store, "downloadConfigInfo", config);
+        store.init();
+        target = dir.resolve("content").resolve("0").toFile();
+    }
+
+    /**
+     * 孤儿拉取被放弃后，同一 key 上发起了新的拉取；旧拉取线程随后的失败不能删掉新拉取的 tmp
+     */
+    @Test
+    void lateFailureOfAbandonedFetchKeepsReplacementTmp() throws Exception {
+        InFlightFetch old = new InFlightFetch("content#0", DATA.length, target, store);
+        old.start();
+        old.append(DATA, 0, 4);
+        // abandonIfOrphaned：没有读取方，放弃并取消
+        assertTrue(old.abandon());
+        old.fail(new CancellationException("no readers left for content#0"));
+
+        InFlightFetch replacement = new InFlightFetch("content#0", DATA.length, target, store);
+        assertTrue(replacement.retain());
+        replacement.start();
+        replacement.append(DATA, 0, 8);
+
+        // 旧拉取线程的下一次写入因通道已关闭失败，submitFetch 的 catch 再次 fail
+        ClosedChannelException late = assertThrows(ClosedChannelException.class, () -> old.append(DATA, 4, 4));
+        old.fail(late);
+
+        // 第一次失败的原因保留，第二次不再生效
+        IOException e = assertThrows(IOException.class, () -> old.awaitAvailable(0, deadline()));
+        assertInstanceOf(CancellationException.class, e.getCause());
+
+        replacement.append(DATA, 8, DATA.length - 8);
+        assertArrayEquals(DATA, readAll(replacement));
+        replacement.complete();
+        assertArrayEquals(DATA, Files.readAllBytes(target.toPath()));
+        assertEquals(0, tmpFiles(), "tmp files left behind");
+    }
+
+    /**
+     * 未使用的预读过期被取消（cancelPrefetch）时其任务仍在拉取；随后对同一块的请求发起的拉取不受预读任务迟到的失败影响
+     */
+    @Test
+    void expiredPrefetchStillRunningKeepsDemandFetchTmp() throws Exception {
+        InFlightFetch prefetch = new InFlightFetch("content#0", DATA.length, target, store);
+        prefetch.start();
+        prefetch.append(DATA, 0, 4);
+        prefetch.fail(new CancellationException("unused prefetch content#0"));
+
+        InFlightFetch demand = new InFlightFetch("content#0", DATA.length, target, store);
+        assertTrue(demand.retain());
+        demand.start();
+
+        // 预读任务读到下一段时发现已取消，submitFetch 的 catch 再次 fail
+        assertTrue(prefetch.isFailed());
+        prefetch.fail(new CancellationException("fetch cancelled: content#0"));
+
+        demand.append(DATA, 0, DATA.length);
+        assertArrayEquals(DATA, readAll(demand));
+        demand.complete();
+        assertArrayEquals(DATA, Files.readAllBytes(target.toPath()));
+        assertEquals(0, tmpFiles(), "tmp files left behind");
+    }
+
+    /**
+     * 预读仍在排队时被取消：任务出队后看到已失败直接返回，不创建 tmp，也不影响请求发起的拉取
+     */
+    @Test
+    void expiredPrefetchStillQueuedLeavesDemandFetchAlone() throws Exception {
+        InFlightFetch prefetch = new InFlightFetch("content#0", DATA.length, target, store);
+        prefetch.fail(new CancellationException("unused prefetch content#0"));
+
+        InFlightFetch demand = new InFlightFetch("content#0", DATA.length, target, store);
+        demand.start();
+        demand.append(DATA, 0, 8);
+        assertTrue(prefetch.isFailed());
+        prefetch.fail(new IOException("dequeued after cancel"));
+
+        demand.append(DATA, 8, DATA.length - 8);
+        demand.complete();
+        assertArrayEquals(DATA, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    void failDeletesOnlyItsOwnTmp() throws Exception {
+        InFlightFetch first = new InFlightFetch("content#0", DATA.length, target, store);
+        InFlightFetch second = new InFlightFetch("content#0", DATA.length, target, store);
+        first.start();
+        second.start();
+        assertEquals(2, tmpFiles());
+
+        first.fail(new IOException("boom"));
+        first.fail(new IOException("again"));
+        assertTrue(first.isFailed());
+        assertFalse(second.isFailed());
+        assertEquals(1, tmpFiles());
+
+        second.append(DATA, 0, DATA.length);
+        second.complete();
+        assertTrue(second.completion().isDone());
+        assertEquals(0, tmpFiles());
+    }
+
+    @Test
+    void failAfterCompleteIsIgnored() throws Exception {
+        InFlightFetch fetch = new InFlightFetch("content#0", DATA.length, target, store);
+        fetch.start();
+        fetch.append(DATA, 0, DATA.length);
+        fetch.complete();
+        fetch.fail(new CancellationException("too late"));
+
+        assertFalse(fetch.isFailed());
+        assertEquals(DATA.length, fetch.awaitAvailable(DATA.length - 1, deadline()));
+        assertArrayEquals(DATA, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    void retainFailsOnceAbandoned() {
+        InFlightFetch fetch = new InFlightFetch("content#0", DATA.length, target, store);
+        assertTrue(fetch.retain());
+        // 仍有读取方时不能放弃
+        assertFalse(fetch.abandon());
+        assertTrue(fetch.release());
+        assertTrue(fetch.abandon());
+        assertFalse(fetch.retain());
+        assertEquals(0, fetch.getWaiters());
+    }
+
+    @Test
+    void whenAvailableCompletesAsDataArrives() throws Exception {
+        InFlightFetch fetch = new InFlightFetch("content#0", DATA.length, target, store);
+        fetch.start();
+        var pending = fetch.whenAvailable(5);
+        fetch.append(DATA, 0, 4);
+        assertFalse(pending.isDone());
+        fetch.append(DATA, 4, 4);
+        assertEquals(8L, pending.get(1, TimeUnit.SECONDS));
+
+        var failed = fetch.whenAvailable(12);
+        fetch.fail(new IOException("boom"));
+        assertTrue(failed.isCompletedExceptionally());
+    }
+
+    private byte[] readAll(InFlightFetch fetch) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        fetch.streamTo(out, 0, fetch.getLength(), deadline());
+        return out.toByteArray();
+    }
+
+    private long tmpFiles() throws IOException {
+        try (Stream<Path> files = Files.list(target.getParentFile().toPath())) {
+            return files.filter(p -> p.getFileName().toString().endsWith(".tmp")).count();
+        }
+    }
+
+    private static long deadline() {
+        return System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    }
+}
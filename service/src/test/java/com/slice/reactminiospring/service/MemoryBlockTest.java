@@ -0,0 +1,82 @@
+package com.slice.reactminiospring.service;
+
+import com.slice.reactminiospring.util.BufferPool;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MemoryBlockTest {
+
+    private static final int FRAME = BufferPool.BUFFER_SIZE;
+
+    /**
+     * 可压缩的块按帧 LZ4 压缩存储，任意区间（帧内、跨帧、末尾不满一帧）解压后与原始字节一致
+     */
+    @Test
+    void compressedBlockRoundTripsAnyRange() throws Exception {
+        byte[] raw = compressible(3 * FRAME + 1234);
+        MemoryBlock block = MemoryBlock.of(raw, 0.9);
+        assertTrue(block.isCompressed());
+        assertTrue(block.weight() < raw.length);
+        assertEquals(raw.length, block.rawLength());
+
+        assertRange(block, raw, 0, raw.length);
+        assertRange(block, raw, 10, 100);
+        assertRange(block, raw, FRAME - 5, 10);
+        assertRange(block, raw, FRAME, FRAME);
+        assertRange(block, raw, FRAME / 2, 2 * FRAME);
+        assertRange(block, raw, 3 * FRAME + 1000, 234);
+        assertRange(block, raw, raw.length - 1, 1);
+    }
+
+    /**
+     * 随机字节（类似已压缩的包）探测后直接存原始字节
+     */
+    @Test
+    void incompressibleBlockStaysRaw() throws Exception {
+        byte[] raw = new byte[2 * FRAME];
+        new Random(3).nextBytes(raw);
+        MemoryBlock block = MemoryBlock.of(raw, 0.9);
+        assertFalse(block.isCompressed());
+        assertEquals(raw.length, block.weight());
+        assertRange(block, raw, FRAME - 3, 6);
+    }
+
+    @Test
+    void smallAndEmptyBlocks() throws Exception {
+        byte[] small = compressible(100);
+        MemoryBlock block = MemoryBlock.of(small, 0.9);
+        assertRange(block, small, 0, small.length);
+        assertRange(block, small, 99, 1);
+
+        MemoryBlock empty = MemoryBlock.of(new byte[0], 0.9);
+        assertFalse(empty.isCompressed());
+        assertEquals(0, empty.rawLength());
+    }
+
+    private static void assertRange(MemoryBlock block, byte[] raw, int offset, int length) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        block.writeTo(out, offset, length);
+        assertArrayEquals(Arrays.copyOfRange(raw, offset, offset + length), out.toByteArray(),
+                "range " + offset + "+" + length);
+    }
+
+    // 重复的文本行夹带行号，可压缩但每帧内容不同
+    private static byte[] compressible(int size) {
+        byte[] raw = new byte[size];
+        StringBuilder sb = new StringBuilder();
+        for (int line = 0; sb.length() < size; line++) {
+            sb.append("2026-10-17 12:00:00 INFO download block ").append(line).append(" served from cache\n");
+        }
+        byte[] text = sb.toString().getBytes();
+        System.arraycopy(text, 0, raw, 0, size);
+        return raw;
+    }
+}
@@ -0,0 +1,108 @@
+package com.slice.reactminiospring.service;
+
+import com.slice.reactminiospring.config.DownloadConfigInfo;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PeerRingTest {
+
+    private static final String A = "http://10.0.0.1:8081";
+    private static final String B = "http://10.0.0.2:8081";
+    private static final String C = "http://10.0.0.3:8081";
+    private static final int KEYS = 10_000;
+
+    /**
+     * 各成员分到的块大致均匀（160 个虚拟节点时偏差在 ±25% 以内）
+     */
+    @Test
+    void keysSpreadAcrossMembers() {
+        PeerRing ring = ring(A, List.of(A, B, C));
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) counts.merge(ring.ownerOf(key(i)), 1, Integer::sum);
+
+        assertEquals(3, counts.size());
+        for (int n : counts.values()) {
+            assertTrue(Math.abs(n - KEYS / 3) < KEYS / 3 / 4, "unbalanced ring: " + counts);
+        }
+    }
+
+    /**
+     * 成员下线只影响原本归属它的块，其余块的归属不变；各节点按同样的成员列表算出同样的归属
+     */
+    @Test
+    void removingMemberOnlyMovesItsKeys() {
+        PeerRing full = ring(A, List.of(A, B, C));
+        PeerRing sameView = ring(B, List.of(C, B, A));
+        PeerRing shrunk = ring(A, List.of(A, B));
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            String owner = full.ownerOf(key(i));
+            assertEquals(owner, sameView.ownerOf(key(i)));
+            if (owner.equals(C)) {
+                assertNotEquals(C, shrunk.ownerOf(key(i)));
+                moved++;
+            } else {
+                assertEquals(owner, shrunk.ownerOf(key(i)));
+            }
+        }
+        assertTrue(moved > 0);
+    }
+
+    @Test
+    void readThroughOnlyFromOtherMembersForLocalKeys() {
+        PeerRing ring = ring(A, List.of(A, B));
+        String local = null;
+        String remote = null;
+        for (int i = 0; local == null || remote == null; i++) {
+            if (ring.isLocal(key(i))) local = key(i);
+            else remote = key(i);
+        }
+        assertTrue(ring.acceptsReadThrough(B, local));
+        assertFalse(ring.acceptsReadThrough(B, remote));
+        assertFalse(ring.acceptsReadThrough(A, local), "a node never reads through itself");
+        assertFalse(ring.acceptsReadThrough(C, local), "caller outside the ring");
+    }
+
+    @Test
+    void disabledRingTreatsEveryKeyAsLocal() {
+        DownloadConfigInfo config = new DownloadConfigInfo();
+        PeerRing ring = new PeerRing();
+        ReflectionTestUtils.setField(ring, "downloadConfigInfo", config);
+        ReflectionTestUtils.setField(ring, "clusterFetchCoordinator", coordinator(false, A));
+        ring.init();
+
+        assertFalse(ring.isEnabled());
+        assertTrue(ring.isLocal(key(1)));
+        assertFalse(ring.acceptsReadThrough(B, key(1)));
+    }
+
+    private static PeerRing ring(String self, List<String> peers) {
+        DownloadConfigInfo config = new DownloadConfigInfo();
+        config.getCluster().setPeers(peers);
+        PeerRing ring = new PeerRing();
+        ReflectionTestUtils.setField(ring, "downloadConfigInfo", config);
+        ReflectionTestUtils.setField(ring, "clusterFetchCoordinator", coordinator(true, self));
+        ring.init();
+        return ring;
+    }
+
+    private static ClusterFetchCoordinator coordinator(boolean enabled, String nodeUrl) {
+        ClusterFetchCoordinator coordinator = new ClusterFetchCoordinator();
+        ReflectionTestUtils.setField(coordinator, "enabled", enabled);
+        ReflectionTestUtils.setField(coordinator, "nodeUrl", nodeUrl);
+        return coordinator;
+    }
+
+    private static String key(int i) {
+        return "etag-" + (i / 16) + "#" + (i % 16);
+    }
+}